@@ -0,0 +1,77 @@
+package org.cis1200;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link CommandParser} on typical lines, and on a malformed
+ * one, which should cost no more than a well-formed one. Run with
+ * {@code -prof gc} to see how much each parse allocates.
+ *
+ * {@link #tryParseLongMessage} parses a MESG with a payload of
+ * {@code payloadLength} characters. Its {@code gc.alloc.rate.norm} should be
+ * that of {@code tryParse} on {@code JOIN java} (the command, its result and
+ * the channel name) plus the payload string, since the parser copies nothing
+ * else that grows with the line.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParserBenchmark {
+
+    /** Typical lines. */
+    @State(Scope.Benchmark)
+    public static class Line {
+        @Param({
+            "MESG java :hello there, is anyone around to talk about generics?",
+            "JOIN java",
+            "CREATE java 1",
+            "KICK java User12",
+            "FROB java"
+        })
+        public String line;
+    }
+
+    /** A MESG line with a long payload, built once. */
+    @State(Scope.Benchmark)
+    public static class LongMessage {
+        @Param({ "1024", "4096" })
+        public int payloadLength;
+
+        public String line;
+
+        @Setup
+        public void setUp() {
+            line = "MESG java :" + "x".repeat(payloadLength);
+        }
+    }
+
+    @Benchmark
+    public ParseResult tryParse(Line line) {
+        return CommandParser.tryParse(7, line.line);
+    }
+
+    @Benchmark
+    public ParseResult tryParseLongMessage(LongMessage message) {
+        return CommandParser.tryParse(7, message.line);
+    }
+
+    @Benchmark
+    public ErrorCode parseAndValidate(Line line) {
+        ParseResult parsed = CommandParser.tryParse(7, line.line);
+        return parsed.isOk() ? parsed.getCommand().validate() : parsed.getError();
+    }
+}
@@ -0,0 +1,82 @@
+package org.cis1200;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of building the responses to a command sent to a channel of
+ * {@code members} users: a NAMES list, a {@link ResponseSet} holding one
+ * {@link Broadcast}, the same set built from one {@link Response} per
+ * recipient as the model originally did, and the expansion of a broadcast
+ * back into responses that the tests compare.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    public int members;
+
+    private final Command message = new MessageCommand(1, "java", "hello, everyone");
+    private SortedSet<String> nicknames;
+    private List<Integer> recipients;
+    private ResponseSet broadcastSet;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nicknames = new TreeSet<>();
+        recipients = new ArrayList<>();
+        for (int id = 0; id < members; id++) {
+            nicknames.add("User" + id);
+            recipients.add(id);
+        }
+        broadcastSet = broadcast();
+    }
+
+    @Benchmark
+    public Response names() {
+        return Response.names(0, "User0", "java", nicknames, "User0");
+    }
+
+    @Benchmark
+    public ResponseSet broadcast() {
+        ResponseSet responses = new ResponseSet();
+        responses.addBroadcast(Broadcast.okay(recipients, "User1", message));
+        return responses;
+    }
+
+    @Benchmark
+    public ResponseSet responsePerRecipient() {
+        ResponseSet responses = new ResponseSet();
+        for (int id : recipients) {
+            responses.addMessage(Response.okay(id, "User1", message));
+        }
+        return responses;
+    }
+
+    @Benchmark
+    public Set<Response> expandBroadcast() {
+        return broadcastSet.getResponses();
+    }
+}
@@ -0,0 +1,98 @@
+package org.cis1200;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the {@link ServerModel} command handlers against a channel
+ * with {@code members} users in it. Every benchmark leaves the model as it
+ * found it, so all iterations measure the same channel size.
+ *
+ * Throughput and sampled latency are reported for each. For allocation
+ * rates, run with the GC profiler:
+ *
+ * <pre>
+ *   mvn -P jmh package
+ *   java -jar target/benchmarks.jar ServerModelBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerModelBenchmark {
+    private static final int OWNER = 0;
+    private static final int SPEAKER = 1;
+    private static final int VISITOR = 2;
+
+    @Param({ "10", "100", "1000", "10000", "100000" })
+    public int members;
+
+    private ServerModel model;
+    private int nextUserId;
+    private boolean renamed;
+
+    private final MessageCommand message = new MessageCommand(SPEAKER, "java", "hello, everyone");
+    private final JoinCommand join = new JoinCommand(VISITOR, "java");
+    private final LeaveCommand leave = new LeaveCommand(VISITOR, "java");
+    private final NicknameCommand rename = new NicknameCommand(SPEAKER, "speaker");
+    private final NicknameCommand renameBack = new NicknameCommand(SPEAKER, "User1");
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        model = new ServerModel();
+        model.registerUser(OWNER);
+        model.registerUser(SPEAKER);
+        model.registerUser(VISITOR);
+        model.createChannel(new CreateCommand(OWNER, "java", false));
+        model.joinChannel(new JoinCommand(SPEAKER, "java"));
+
+        // Everyone else only listens. Joining them one at a time would take
+        // quadratic time, since every JOIN lists all the members, so they
+        // are added to the channel directly.
+        ChannelInfo channel = model.getRegisteredChannels().iterator().next();
+        for (int id = VISITOR + 1; id <= members; id++) {
+            model.registerUser(id);
+            channel.addUser(id, model.getNickname(id));
+        }
+        nextUserId = Math.max(members, VISITOR) + 1;
+    }
+
+    @Benchmark
+    public ResponseSet registerAndDeregister() {
+        int userId = nextUserId++;
+        model.registerUser(userId);
+        return model.deregisterUser(userId);
+    }
+
+    @Benchmark
+    public ResponseSet changeNickname() {
+        renamed = !renamed;
+        return model.changeNickname(renamed ? rename : renameBack);
+    }
+
+    @Benchmark
+    public ResponseSet joinAndLeave() {
+        model.joinChannel(join);
+        return model.leaveChannel(leave);
+    }
+
+    @Benchmark
+    public ResponseSet sendMessage() {
+        return model.sendMessage(message);
+    }
+}
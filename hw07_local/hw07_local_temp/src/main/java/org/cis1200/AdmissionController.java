@@ -0,0 +1,201 @@
+package org.cis1200;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@code AdmissionController} keeps the model threads' queues from
+ * growing without bound when clients send more than the server can handle.
+ *
+ * It counts the client commands that are queued, in total and for each
+ * sender, and how long each one waited before a model thread took it. The
+ * server is overloaded once the queues reach a high watermark or a command
+ * has waited longer than the maximum. It stays overloaded until the queues
+ * are back down to a low watermark and commands no longer wait too long.
+ *
+ * While overloaded, a new MESG is shed if its sender already has at least
+ * its fair share of the queue, so the clients causing the load are the ones
+ * that lose messages. The sender gets {@link ErrorCode#SERVER_BUSY}. Other
+ * commands are always admitted, as are connections and disconnections,
+ * which never pass through here. A MESG that waited longer than the
+ * maximum is dropped when it is taken, overloaded or not, since its
+ * recipients are better served by newer messages.
+ */
+final class AdmissionController {
+    private final int highWatermark;  // 0 for no limit on depth
+    private final int lowWatermark;
+    private final long maxWaitNanos;  // 0 for no limit on waiting
+    private final AsyncLog log;
+
+    private final AtomicInteger depth = new AtomicInteger();
+    // Commands queued for each sender that has any. Every change to an entry
+    // is made under compute(), which also keeps senders equal to its size
+    private final Map<Integer, Integer> queued = new ConcurrentHashMap<>();
+    private final AtomicInteger senders = new AtomicInteger();
+    private final AtomicBoolean shedding = new AtomicBoolean();
+    private volatile long lastWaitNanos;
+
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder episodes = new LongAdder();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    /**
+     * @param highWatermark queued commands at which shedding starts, or 0
+     * @param lowWatermark  queued commands at which shedding may stop
+     * @param maxWaitNanos  the longest a command should wait in a queue, or 0
+     * @param log           where to report that shedding starts and stops
+     */
+    AdmissionController(int highWatermark, int lowWatermark, long maxWaitNanos, AsyncLog log) {
+        if (highWatermark < 0 || lowWatermark < 0 || maxWaitNanos < 0) {
+            throw new IllegalArgumentException("limits must not be negative");
+        }
+        if (highWatermark > 0 && lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("lowWatermark must be below highWatermark");
+        }
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.maxWaitNanos = maxWaitNanos;
+        this.log = log;
+    }
+
+    /**
+     * Decides whether to queue a command, and counts it as queued if so.
+     * Called on the thread that read the command.
+     *
+     * @param command the command
+     * @return false if the command was shed
+     */
+    boolean admit(Command command) {
+        int total = depth.get();
+        update(total);
+        if (shedding.get() && command instanceof MessageCommand) {
+            // Shed from the senders with at least an even share of the queue
+            Integer count = queued.get(command.getSenderId());
+            if (count != null && (long) count * senders.get() >= total) {
+                shed.increment();
+                return false;
+            }
+        }
+        queued.compute(command.getSenderId(), (id, count) -> {
+            if (count == null) {
+                senders.incrementAndGet();
+                return 1;
+            }
+            return count + 1;
+        });
+        // Readers admit at once, so the peak is raised atomically or lost
+        maxDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+        return true;
+    }
+
+    /**
+     * Counts an admitted command as no longer queued. Called by the model
+     * thread that took it.
+     *
+     * @param command    the command
+     * @param waitNanos  how long it waited in the queue
+     * @return false if the command waited too long and should be dropped
+     */
+    boolean started(Command command, long waitNanos) {
+        // Nothing is left to count if the sender has been forgotten
+        queued.computeIfPresent(command.getSenderId(), (id, count) -> {
+            if (count == 1) {
+                senders.decrementAndGet();
+                return null;
+            }
+            return count - 1;
+        });
+        update(depth.decrementAndGet());
+        lastWaitNanos = waitNanos;
+        if (maxWaitNanos > 0 && waitNanos > maxWaitNanos && command instanceof MessageCommand) {
+            expired.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forgets a client that disconnected. Commands it still has queued are
+     * counted in the total but no longer in a share of their own.
+     *
+     * @param userId the client
+     */
+    void forget(int userId) {
+        queued.computeIfPresent(userId, (id, count) -> {
+            senders.decrementAndGet();
+            return null;
+        });
+    }
+
+    private void update(int total) {
+        long wait = lastWaitNanos;
+        boolean waitTooLong = maxWaitNanos > 0 && wait > maxWaitNanos;
+        if (!shedding.get()) {
+            if ((highWatermark > 0 && total >= highWatermark) || waitTooLong) {
+                if (shedding.compareAndSet(false, true)) {
+                    episodes.increment();
+                    log.log(
+                            AsyncLog.Category.SERVER, AsyncLog.Level.WARN,
+                            "Overloaded, shedding messages: %d queued, waiting %d us\n",
+                            total, wait / 1000
+                    );
+                }
+            }
+        } else if ((highWatermark == 0 || total <= lowWatermark) && !waitTooLong) {
+            if (shedding.compareAndSet(true, false)) {
+                log.log(
+                        AsyncLog.Category.SERVER, AsyncLog.Level.WARN,
+                        "No longer overloaded: %d queued\n", total
+                );
+            }
+        }
+    }
+
+    // ==========================================================================
+    // Counters
+    // ==========================================================================
+
+    /** @return whether messages are being shed */
+    boolean isShedding() {
+        return shedding.get();
+    }
+
+    /** @return the number of client commands queued */
+    int getDepth() {
+        return depth.get();
+    }
+
+    /** @return the number of clients with commands queued */
+    int getSenders() {
+        return senders.get();
+    }
+
+    /** @return the most client commands that have been queued at once */
+    int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /** @return how long the command most recently taken had waited, in nanoseconds */
+    long getLastWaitNanos() {
+        return lastWaitNanos;
+    }
+
+    /** @return the number of messages shed on arrival */
+    long getShed() {
+        return shed.sum();
+    }
+
+    /** @return the number of messages dropped after waiting too long */
+    long getExpired() {
+        return expired.sum();
+    }
+
+    /** @return how many times the server has started shedding */
+    long getSheddingEpisodes() {
+        return episodes.sum();
+    }
+}
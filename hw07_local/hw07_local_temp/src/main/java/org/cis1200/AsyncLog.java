@@ -0,0 +1,202 @@
+package org.cis1200;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code AsyncLog} takes log lines off the threads that produce them. A call
+ * to {@link #log} only checks the category's level and sampling rate and
+ * puts the unformatted entry in a bounded buffer; a background thread does
+ * the formatting and the writing. If the buffer is full the entry is
+ * dropped and counted rather than making the caller wait, and the writer
+ * reports how many lines were lost once it catches up.
+ */
+final class AsyncLog {
+
+    /** What a log line is about; each has its own level and sampling rate. */
+    enum Category {
+        /** A line received from a client. */
+        REQUEST,
+        /** A line sent to a client. */
+        RESPONSE,
+        /** Everything else the server reports. */
+        SERVER
+    }
+
+    /** How important a log line is, from most to least. */
+    enum Level {
+        OFF, WARN, INFO, DEBUG
+    }
+
+    private static final class Entry {
+        private final String format;
+        private final Object arg0;
+        private final Object arg1;
+
+        Entry(String format, Object arg0, Object arg1) {
+            this.format = format;
+            this.arg0 = arg0;
+            this.arg1 = arg1;
+        }
+    }
+
+    private final PrintStream out;
+    private final BlockingQueue<Entry> buffer;
+    private final Map<Category, Level> levels = new EnumMap<>(Category.class);
+    private final Map<Category, Integer> sampling = new EnumMap<>(Category.class);
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile boolean closed = false;
+    private Thread writer = null;
+
+    /**
+     * Creates a log with every category at {@link Level#INFO} and no
+     * sampling. Nothing is written until {@link #start()} is called.
+     *
+     * @param out      where to write
+     * @param capacity the most entries waiting to be written
+     */
+    AsyncLog(PrintStream out, int capacity) {
+        this.out = out;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        for (Category category : Category.values()) {
+            levels.put(category, Level.INFO);
+            sampling.put(category, 1);
+        }
+    }
+
+    /**
+     * Sets the most detailed level logged for a category. Call this before
+     * {@link #start()}.
+     *
+     * @param category the category
+     * @param level    the level; {@link Level#OFF} silences the category
+     */
+    void setLevel(Category category, Level level) {
+        levels.put(category, level);
+    }
+
+    /**
+     * Logs only about one in {@code every} lines of a category, chosen at
+     * random. Call this before {@link #start()}.
+     *
+     * @param category the category
+     * @param every    the sampling rate; 1 logs every line
+     */
+    void setSampling(Category category, int every) {
+        if (every < 1) {
+            throw new IllegalArgumentException("sampling rate must be positive");
+        }
+        sampling.put(category, every);
+    }
+
+    /**
+     * Checks the level and sampling rate without logging anything. Callers
+     * can use this to skip building expensive arguments.
+     *
+     * @param category the category of the line
+     * @param level    the level of the line
+     * @return whether a line with this category and level would be logged
+     */
+    boolean isEnabled(Category category, Level level) {
+        if (level == Level.OFF || level.compareTo(levels.get(category)) > 0) {
+            return false;
+        }
+        int every = sampling.get(category);
+        return every == 1 || ThreadLocalRandom.current().nextInt(every) == 0;
+    }
+
+    /**
+     * Logs a line with one argument.
+     *
+     * @see #log(Category, Level, String, Object, Object)
+     */
+    void log(Category category, Level level, String format, Object arg0) {
+        log(category, level, format, arg0, null);
+    }
+
+    /**
+     * Logs a line with two arguments, unless the level or sampling rate of
+     * the category rules it out. The line is formatted later, on the writer
+     * thread, so the arguments must not change after the call.
+     *
+     * @param category the category of the line
+     * @param level    the level of the line
+     * @param format   a {@link java.util.Formatter} format string
+     * @param arg0     the first argument
+     * @param arg1     the second argument
+     */
+    void log(Category category, Level level, String format, Object arg0, Object arg1) {
+        if (isEnabled(category, level)) {
+            append(new Entry(format, arg0, arg1));
+        }
+    }
+
+    /** @return the number of lines dropped because the buffer was full */
+    long getDroppedLines() {
+        return dropped.sum();
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    void start() {
+        writer = new Thread(this::drain, "Log writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops accepting lines, and waits briefly for the writer to write the
+     * ones already buffered.
+     */
+    void close() {
+        closed = true;
+        if (writer != null) {
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ==========================================================================
+    // Private utility methods
+    // ==========================================================================
+
+    private void append(Entry entry) {
+        if (closed || !buffer.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    private void drain() {
+        long reported = 0;
+        while (!closed || !buffer.isEmpty()) {
+            Entry entry;
+            try {
+                entry = buffer.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ix) {
+                continue;
+            }
+            if (entry != null) {
+                out.format(entry.format, entry.arg0, entry.arg1);
+            }
+            if (buffer.isEmpty()) {
+                long lost = dropped.sum();
+                if (lost > reported) {
+                    out.format("Log buffer full: %d lines dropped\n", lost - reported);
+                    reported = lost;
+                }
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.cis1200;
+
+import java.util.*;
+
+/**
+ * A {@code Broadcast} is one message addressed to many recipients, such as a
+ * channel message echoed to every member. The text is built once and encoded
+ * once, however many recipients there are, and the backend writes the same
+ * bytes to every recipient's socket.
+ *
+ * A broadcast is equivalent to one {@link Response} per recipient with the
+ * same text; {@link #toResponses()} produces exactly those responses.
+ */
+public final class Broadcast {
+    private final int[] recipientIds;
+    private final String text;
+    private byte[] encoded; // built on first use by the backend
+
+    private Broadcast(int[] recipientIds, String text) {
+        this.recipientIds = recipientIds;
+        this.text = text;
+    }
+
+    /** @return the number of recipients */
+    public int size() {
+        return recipientIds.length;
+    }
+
+    /**
+     * @param index position in the recipient list, from 0 to {@link #size()}
+     * @return the userId of that recipient
+     */
+    public int getRecipientId(int index) {
+        return recipientIds[index];
+    }
+
+    /** @return the text sent to every recipient */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the text as a terminated line in the wire encoding, shared by
+     *         all recipients; it must not be modified
+     */
+    byte[] getEncodedLine() {
+        if (encoded == null) {
+            encoded = ClientConnection.encodeLine(text);
+        }
+        return encoded;
+    }
+
+    /** @return one {@link Response} per recipient, all with this text */
+    public List<Response> toResponses() {
+        List<Response> responses = new ArrayList<>(recipientIds.length);
+        for (int recipientId : recipientIds) {
+            responses.add(Response.withText(recipientId, text));
+        }
+        return responses;
+    }
+
+    @Override
+    public String toString() {
+        return "Broadcast{" +
+                "recipientIds=" + Arrays.toString(recipientIds) +
+                ", message='" + text + '\'' +
+                '}';
+    }
+
+    // ==============================================================================
+    // Factory methods
+    // ==============================================================================
+
+    /*
+     * Used by ResponseSet, which stores every message as a broadcast.
+     */
+    static Broadcast of(Response response) {
+        return new Broadcast(new int[] { response.getRecipientId() }, response.getText());
+    }
+
+    /**
+     * The broadcast form of {@link Response#okay}: the command, echoed with
+     * the nickname of the user that issued it, to every recipient.
+     *
+     * @param recipientIds   the userIds of the recipients
+     * @param senderNickname the nickname of user who sent the command
+     * @param command        {@code Command} to be echoed
+     * @return OKAY broadcast
+     */
+    public static Broadcast okay(
+            Collection<Integer> recipientIds, String senderNickname, Command command
+    ) {
+        int[] ids = new int[recipientIds.size()];
+        int i = 0;
+        for (Integer recipientId : recipientIds) {
+            ids[i++] = recipientId;
+        }
+        return new Broadcast(ids, ":" + senderNickname + " " + command.toString());
+    }
+}
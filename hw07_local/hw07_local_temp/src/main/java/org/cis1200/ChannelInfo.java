@@ -49,7 +49,7 @@ public class ChannelInfo implements Comparable<ChannelInfo> {
      * @return The name of the channel.
      */
     public String getChannelName() {
-        return new String(name);
+        return name;
     }
 
     /**
@@ -61,6 +61,16 @@ public class ChannelInfo implements Comparable<ChannelInfo> {
         return new TreeSet<>(users.keySet());
     }
 
+    /**
+     * Gets a read-only view of the user IDs in the channel, without copying.
+     * The view changes as users join and leave.
+     *
+     * @return An unmodifiable view of the IDs of all users in the channel.
+     */
+    public Set<Integer> getUserIdsView() {
+        return Collections.unmodifiableSet(users.keySet());
+    }
+
     /**
      * Gets a sorted set of usernames in the channel.
      *
@@ -122,7 +132,8 @@ public class ChannelInfo implements Comparable<ChannelInfo> {
     }
 
     /**
-     * Compares this ChannelInfo with another based on the ASCII sum of their channel names.
+     * Compares this ChannelInfo with another by channel name, so that two
+     * channels compare as equal exactly when {@link #equals(Object)} says so.
      *
      * @param that The other ChannelInfo object to compare to.
      * @return A negative integer, zero, or a positive integer as this ChannelInfo
@@ -130,24 +141,7 @@ public class ChannelInfo implements Comparable<ChannelInfo> {
      */
     @Override
     public int compareTo(ChannelInfo that) {
-        //getting the ascii values of both channel names
-        return Integer.compare(getAscii(this.name), that.getAscii(that.getChannelName()));
-    }
-
-    /**
-     * Helper for {@link #compareTo(ChannelInfo)}.
-     *
-     * Converts a string to the sum of ASCII values of its characters.
-     *
-     * @param str The string to convert.
-     * @return The ASCII sum of all characters in the string.
-     */
-    private int getAscii(String str) {
-        int ascii = 0;
-        for (Character c : str.toCharArray()) {
-            ascii += c;
-        }
-        return ascii;
+        return name.compareTo(that.name);
     }
 
     /**
@@ -166,7 +160,18 @@ public class ChannelInfo implements Comparable<ChannelInfo> {
             return false;
         }
         ChannelInfo that = (ChannelInfo) o;
-        return name.equals(that.getChannelName());
+        return name.equals(that.name);
+    }
+
+    /**
+     * Hashes this ChannelInfo by channel name, consistent with
+     * {@link #equals(Object)}, so channels can be kept in hashed collections.
+     *
+     * @return The hash code of the channel name.
+     */
+    @Override
+    public int hashCode() {
+        return name.hashCode();
     }
 
 }
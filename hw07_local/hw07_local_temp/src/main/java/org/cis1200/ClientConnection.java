@@ -0,0 +1,59 @@
+package org.cis1200;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@code ClientConnection} is the backend's handle on one connected client,
+ * independent of how the transport reads from and writes to its socket.
+ * The model thread uses it to deliver each {@link Response} and {@link Broadcast}.
+ */
+interface ClientConnection {
+
+    /**
+     * Queues one line for the client. The same array may be passed to many
+     * connections at once, so implementations must not modify it. A client
+     * that cannot keep up may be disconnected, but the disconnection is never
+     * reported on the calling thread, which may be a model thread or hold
+     * the {@link StripedModel}'s locks.
+     *
+     * @param encodedLine a line produced by {@link #encodeLine(String)}
+     */
+    default void send(byte[] encodedLine) {
+        send(encodedLine, true);
+    }
+
+    /**
+     * Queues one line for the client, like {@link #send(byte[])}. If the
+     * caller may not wait, a full queue disconnects the client even under
+     * {@code overflow=block}. An implementation never waits on a thread its
+     * writer depends on, whatever the caller says.
+     *
+     * @param encodedLine a line produced by {@link #encodeLine(String)}
+     * @param mayWait     whether the caller may wait for room in the queue
+     */
+    void send(byte[] encodedLine, boolean mayWait);
+
+    /**
+     * Hands every line sent since the last flush to the writer. The backend
+     * calls this once per connection after each batch of tasks, so that the
+     * lines can be written together.
+     */
+    void flush();
+
+    /**
+     * Closes the underlying socket. Closing an already closed connection has
+     * no effect.
+     */
+    void close();
+
+    /**
+     * Encodes a line of text the way it is sent to clients: UTF-8, followed
+     * by the platform line separator (as {@code PrintWriter.println} wrote it).
+     *
+     * @param line the text, without a terminator
+     * @return the bytes to write
+     */
+    static byte[] encodeLine(String line) {
+        return (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -53,6 +53,40 @@ public abstract class Command {
      */
     public abstract ResponseSet updateServerModel(ServerModel model);
 
+    /**
+     * Gets the channel this command is about. Commands about different
+     * channels touch disjoint parts of the {@link ServerModel}, which lets the
+     * backend run them at the same time.
+     *
+     * @return the channel name, or null if the command is not about a
+     *         single channel
+     */
+    public String getChannel() {
+        return null;
+    }
+
+    /**
+     * Whether the command names another user, whom it adds to or removes
+     * from its channel. Such a command depends on who has which nickname.
+     *
+     * @return true for commands that name another user
+     */
+    boolean namesOtherUser() {
+        return false;
+    }
+
+    /**
+     * Checks the parts of the command that do not depend on the state of the
+     * server, such as whether a proposed name is well formed. The backend
+     * calls this on the thread that received the command, so that such
+     * errors never reach the model thread.
+     *
+     * @return the error to report, or null if the command may be processed
+     */
+    ErrorCode validate() {
+        return null;
+    }
+
     /**
      * Compare two commands
      *
@@ -106,6 +140,11 @@ class NicknameCommand extends Command {
         return model.changeNickname(this);
     }
 
+    @Override
+    ErrorCode validate() {
+        return ServerModel.isValidName(newNickname) ? null : ErrorCode.INVALID_NAME;
+    }
+
     /** @return the new nickname from the command */
     public String getNewNickname() {
         return newNickname;
@@ -142,7 +181,13 @@ class CreateCommand extends Command {
         return model.createChannel(this);
     }
 
+    @Override
+    ErrorCode validate() {
+        return ServerModel.isValidName(channel) ? null : ErrorCode.INVALID_NAME;
+    }
+
     /** @return the new channel name */
+    @Override
     public String getChannel() {
         return channel;
     }
@@ -183,7 +228,13 @@ class JoinCommand extends Command {
         return model.joinChannel(this);
     }
 
+    @Override
+    ErrorCode validate() {
+        return channel == null ? ErrorCode.SYNTAX_ERROR : null;
+    }
+
     /** @return the channel the user wants to join */
+    @Override
     public String getChannel() {
         return channel;
     }
@@ -220,7 +271,13 @@ class MessageCommand extends Command {
         return model.sendMessage(this);
     }
 
+    @Override
+    ErrorCode validate() {
+        return channel == null || message == null ? ErrorCode.SYNTAX_ERROR : null;
+    }
+
     /** @return the channel where the message should be sent */
+    @Override
     public String getChannel() {
         return channel;
     }
@@ -254,7 +311,13 @@ class LeaveCommand extends Command {
         return model.leaveChannel(this);
     }
 
+    @Override
+    ErrorCode validate() {
+        return channel == null ? ErrorCode.SYNTAX_ERROR : null;
+    }
+
     /** @return channel the user wishes to leave */
+    @Override
     public String getChannel() {
         return channel;
     }
@@ -291,7 +354,18 @@ class InviteCommand extends Command {
         return model.inviteUser(this);
     }
 
+    @Override
+    boolean namesOtherUser() {
+        return true;
+    }
+
+    @Override
+    ErrorCode validate() {
+        return channel == null || userToInvite == null ? ErrorCode.SYNTAX_ERROR : null;
+    }
+
     /** @return channel name for the invitation */
+    @Override
     public String getChannel() {
         return channel;
     }
@@ -335,7 +409,18 @@ class KickCommand extends Command {
         return model.kickUser(this);
     }
 
+    @Override
+    boolean namesOtherUser() {
+        return true;
+    }
+
+    @Override
+    ErrorCode validate() {
+        return channel == null || userToKick == null ? ErrorCode.SYNTAX_ERROR : null;
+    }
+
     /** @return the channel name */
+    @Override
     public String getChannel() {
         return channel;
     }
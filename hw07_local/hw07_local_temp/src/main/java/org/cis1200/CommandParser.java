@@ -1,8 +1,5 @@
 package org.cis1200;
 
-import java.util.List;
-import java.util.LinkedList;
-
 /**
  * The {@code CommandParser} class includes a single static method that can
  * convert a String into the appropriate {@link Command} object that
@@ -33,72 +30,116 @@ public final class CommandParser {
      *
      */
     public static Command parse(int senderId, String commandString) {
-        String commandType = null;
-        List<String> parameters = new LinkedList<>();
+        ParseResult result = tryParse(senderId, commandString);
+        if (result.isOk()) {
+            return result.getCommand();
+        } else if (result == ParseResult.BAD_CREATE_FLAG) {
+            return null;
+        } else if (result == ParseResult.UNKNOWN_COMMAND) {
+            int end = commandString.startsWith(" ") ? -1 : commandString.indexOf(' ');
+            throw new IllegalArgumentException(
+                    "Unknown command "
+                            + (end < 0 ? commandString : commandString.substring(0, end))
+            );
+        }
+        throw new IllegalArgumentException(result.getProblem());
+    }
+
+    /**
+     * Parses a string received from a client like {@link #parse}, but
+     * reports a malformed string through the result instead of by throwing.
+     * A CREATE command whose flag is neither 0 nor 1 is also a failure here.
+     *
+     * @param senderId      The userId for the sender of the command
+     * @param commandString The command string to parse
+     * @return the parsed command, or why there is none
+     */
+    public static ParseResult tryParse(int senderId, String commandString) {
+        // One pass over the line: each token is found by a single indexOf
+        // from the current position, and only the parameters and payload
+        // that end up in the Command are copied out of the line
+        int typeStart = -1;
+        int typeEnd = -1;
+        String param0 = null;
+        String param1 = null;
+        int paramCount = 0;
         String payload = null;
-        int index;
 
-        while ((index = commandString.indexOf(' ')) > 0) {
-            if (commandString.startsWith(":")) {
-                payload = commandString.substring(1);
-                commandString = "";
+        int length = commandString.length();
+        int pos = 0;
+        while (pos < length) {
+            if (commandString.charAt(pos) == ':') {
+                payload = commandString.substring(pos + 1);
                 break;
-            } else {
-                String token = commandString.substring(0, index);
-                if (commandType == null) {
-                    commandType = token;
-                } else {
-                    parameters.add(token);
-                }
-                commandString = commandString.substring(index + 1);
             }
-        }
-
-        if (!commandString.isEmpty()) {
-            if (commandString.startsWith(":")) {
-                payload = commandString.substring(1);
-            } else if (commandType == null) {
-                commandType = commandString;
+            // A token runs to the next space; the rest of a line that starts
+            // with a space is a single token
+            int end = commandString.charAt(pos) == ' '
+                    ? -1
+                    : commandString.indexOf(' ', pos);
+            if (end < 0) {
+                end = length;
+            }
+            if (typeStart < 0) {
+                typeStart = pos;
+                typeEnd = end;
+            } else if (paramCount == 0) {
+                param0 = commandString.substring(pos, end);
+                paramCount++;
+            } else if (paramCount == 1) {
+                param1 = commandString.substring(pos, end);
+                paramCount++;
             } else {
-                parameters.add(commandString);
+                return ParseResult.TOO_MANY_PARAMETERS;
             }
+            pos = end + 1;
         }
 
-        if (commandType == null) {
-            throw new IllegalArgumentException("No command type");
-        } else if (parameters.size() > 2) {
-            throw new IllegalArgumentException("Too many parameters");
+        if (typeStart < 0) {
+            return ParseResult.NO_COMMAND_TYPE;
         }
 
-        String param0 = parameters.size() >= 1 ? parameters.get(0) : null;
-        String param1 = parameters.size() >= 2 ? parameters.get(1) : null;
-
-        switch (commandType) {
-            case "CREATE":
-                boolean isInviteOnly;
-                if ("1".equals(param1)) {
-                    isInviteOnly = true;
-                } else if ("0".equals(param1)) {
-                    isInviteOnly = false;
-                } else {
-                    return null;
+        // Verbs are told apart by length, then compared in place
+        switch (typeEnd - typeStart) {
+            case 4:
+                if (isVerb(commandString, typeStart, "JOIN")) {
+                    return ParseResult.of(new JoinCommand(senderId, param0));
+                } else if (isVerb(commandString, typeStart, "KICK")) {
+                    return ParseResult.of(new KickCommand(senderId, param0, param1));
+                } else if (isVerb(commandString, typeStart, "MESG")) {
+                    return ParseResult.of(new MessageCommand(senderId, param0, payload));
+                } else if (isVerb(commandString, typeStart, "NICK")) {
+                    return ParseResult.of(new NicknameCommand(senderId, param0));
                 }
-                return new CreateCommand(senderId, param0, isInviteOnly);
-            case "INVITE":
-                return new InviteCommand(senderId, param0, param1);
-            case "JOIN":
-                return new JoinCommand(senderId, param0);
-            case "KICK":
-                return new KickCommand(senderId, param0, param1);
-            case "LEAVE":
-                return new LeaveCommand(senderId, param0);
-            case "MESG":
-                return new MessageCommand(senderId, param0, payload);
-            case "NICK":
-                return new NicknameCommand(senderId, param0);
+                break;
+            case 5:
+                if (isVerb(commandString, typeStart, "LEAVE")) {
+                    return ParseResult.of(new LeaveCommand(senderId, param0));
+                }
+                break;
+            case 6:
+                if (isVerb(commandString, typeStart, "CREATE")) {
+                    boolean isInviteOnly;
+                    if ("1".equals(param1)) {
+                        isInviteOnly = true;
+                    } else if ("0".equals(param1)) {
+                        isInviteOnly = false;
+                    } else {
+                        return ParseResult.BAD_CREATE_FLAG;
+                    }
+                    return ParseResult.of(new CreateCommand(senderId, param0, isInviteOnly));
+                } else if (isVerb(commandString, typeStart, "INVITE")) {
+                    return ParseResult.of(new InviteCommand(senderId, param0, param1));
+                }
+                break;
             default:
-                throw new IllegalArgumentException("Unknown command " + commandType);
+                break;
         }
+        return ParseResult.UNKNOWN_COMMAND;
+    }
+
+    private static boolean isVerb(String line, int start, String verb) {
+        return line.regionMatches(start, verb, 0, verb.length());
     }
 
     // Prevents the instantiation of any CommandParser objects,
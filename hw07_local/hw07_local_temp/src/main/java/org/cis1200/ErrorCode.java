@@ -9,6 +9,13 @@ package org.cis1200;
  */
 public enum ErrorCode {
 
+    /**
+     * Response by the server when a client sends a line that is not a
+     * well-formed command: an unknown command, too many parameters, a
+     * missing parameter or a CREATE flag other than 0 or 1.
+     */
+    SYNTAX_ERROR(400),
+
     /**
      * Response by the server when a user tries to change his/her
      * nickname to an invalid string.
@@ -53,6 +60,12 @@ public enum ErrorCode {
      */
     INVITE_TO_PUBLIC_CHANNEL(408),
 
+    /**
+     * Response by the server when a client sends commands, or messages to
+     * a channel, faster than the server's rate limits allow.
+     */
+    RATE_LIMITED(429),
+
     /**
      * Response by the server when a client attempts to change his or
      * her nick to a nickname that is already in use by another user.
@@ -64,7 +77,13 @@ public enum ErrorCode {
      * channel whose name is already used by another channel on the
      * server.
      */
-    CHANNEL_ALREADY_EXISTS(501);
+    CHANNEL_ALREADY_EXISTS(501),
+
+    /**
+     * Response by the server when it is overloaded and drops a message
+     * rather than queue it.
+     */
+    SERVER_BUSY(503);
 
     // The integer associated with this enum value
     private final int value;
@@ -0,0 +1,188 @@
+package org.cis1200;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * An unbounded {@link TaskQueue} that shares the consumer fairly among the
+ * producers of its tasks, so that one client flooding the server delays
+ * everyone else by at most one turn rather than by its whole backlog.
+ *
+ * Each task belongs to a lane (for the backend, the client it came from).
+ * Lanes with tasks waiting are served round-robin, up to {@code quantum}
+ * tasks per turn; within a lane, tasks keep their order.
+ *
+ * Control tasks (for the backend, connections and disconnections) go to a
+ * FIFO lane of their own that is served before all the others. A control
+ * task still belongs to a lane, and never overtakes the tasks that were
+ * added to that lane before it: those are taken first.
+ *
+ * @param <T> the type of the tasks
+ */
+final class FairTaskQueue<T> implements TaskQueue<T> {
+
+    /** A task with the order in which it was added. */
+    private static final class Entry<T> {
+        final T task;
+        final long sequence;
+
+        Entry(T task, long sequence) {
+            this.task = task;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Lane<T> {
+        final Object key;
+        final ArrayDeque<Entry<T>> entries = new ArrayDeque<>();
+        int credit; // tasks this lane may still take in its current turn
+
+        Lane(Object key) {
+            this.key = key;
+        }
+    }
+
+    private final Function<? super T, ?> laneOf;
+    private final Predicate<? super T> isControl;
+    private final int quantum;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    // Guarded by lock
+    private final Map<Object, Lane<T>> lanes = new HashMap<>();
+    private final ArrayDeque<Lane<T>> active = new ArrayDeque<>(); // lanes with tasks, in turn
+    private final ArrayDeque<Entry<T>> control = new ArrayDeque<>();
+    private long nextSequence = 0;
+    private int size = 0;
+
+    /**
+     * @param laneOf    gives the lane of a task; lanes are compared with
+     *                  {@code equals}
+     * @param isControl whether a task goes in the control lane
+     * @param quantum   the most tasks a lane may take per turn
+     */
+    FairTaskQueue(Function<? super T, ?> laneOf, Predicate<? super T> isControl, int quantum) {
+        if (quantum < 1) {
+            throw new IllegalArgumentException("quantum must be positive");
+        }
+        this.laneOf = laneOf;
+        this.isControl = isControl;
+        this.quantum = quantum;
+    }
+
+    @Override
+    public void add(T task) {
+        boolean control = isControl.test(task);
+        Object key = control ? null : laneOf.apply(task);
+        lock.lock();
+        try {
+            Entry<T> entry = new Entry<>(task, nextSequence++);
+            if (control) {
+                this.control.add(entry);
+            } else {
+                Lane<T> lane = lanes.get(key);
+                if (lane == null) {
+                    lane = new Lane<>(key);
+                    lanes.put(key, lane);
+                    active.add(lane);
+                }
+                lane.entries.add(entry);
+            }
+            if (size++ == 0) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int take(Collection<? super T> batch, int max) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            int taken = 0;
+            while (taken < max && size > 0) {
+                int n = control.isEmpty()
+                        ? takeTurn(batch, max - taken)
+                        : takeControl(batch, max - taken);
+                taken += n;
+                size -= n;
+            }
+            return taken;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Takes the oldest control task, or if its lane still holds older tasks,
+     * as many of those as allowed.
+     */
+    private int takeControl(Collection<? super T> batch, int max) {
+        Entry<T> next = control.peek();
+        Lane<T> lane = lanes.get(laneOf.apply(next.task));
+        if (lane == null || lane.entries.peek().sequence > next.sequence) {
+            control.poll();
+            batch.add(next.task);
+            return 1;
+        }
+        int taken = 0;
+        while (taken < max && !lane.entries.isEmpty()
+                && lane.entries.peek().sequence < next.sequence) {
+            batch.add(lane.entries.poll().task);
+            taken++;
+        }
+        if (lane.entries.isEmpty()) {
+            retire(lane);
+        }
+        return taken;
+    }
+
+    /*
+     * Takes tasks from the lane whose turn it is, moving on to the next lane
+     * when this one runs out of tasks or of credit.
+     */
+    private int takeTurn(Collection<? super T> batch, int max) {
+        Lane<T> lane = active.peek();
+        if (lane.credit == 0) {
+            lane.credit = quantum;
+        }
+        int taken = 0;
+        while (taken < max && lane.credit > 0 && !lane.entries.isEmpty()) {
+            batch.add(lane.entries.poll().task);
+            lane.credit--;
+            taken++;
+        }
+        if (lane.entries.isEmpty()) {
+            retire(lane);
+        } else if (lane.credit == 0) {
+            active.add(active.poll());
+        }
+        return taken;
+    }
+
+    private void retire(Lane<T> lane) {
+        lanes.remove(lane.key);
+        active.remove(lane);
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.cis1200;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The server's own JDK Flight Recorder events, recorded alongside the JVM's
+ * whenever a recording is running (for instance with
+ * {@code -XX:StartFlightRecording}) and watched in-process by a
+ * {@link ProfilingWatcher}.
+ *
+ * An event costs next to nothing while nobody records it. While recording,
+ * only the events below their threshold are dropped early, so the defaults
+ * keep an always-on recording cheap: every batch of the model threads is
+ * recorded, but only commands that take a millisecond or more. A custom
+ * {@code .jfc} file can lower that. None of the events records a stack
+ * trace.
+ */
+final class FlightEvents {
+
+    /**
+     * A command run against the model, including registration and
+     * disconnection. With {@code execution=inline} it includes waiting for
+     * the locks and sending the responses, as the metrics do.
+     */
+    @Name("org.cis1200.CommandExecuted")
+    @Label("Command Executed")
+    @Description("A command run against the model")
+    @Category("PennPals")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class CommandExecuted extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Channel")
+        String channel;
+
+        @Label("Sender")
+        int sender;
+
+        @Label("Fan-out")
+        @Description("Lines the command's responses went out as")
+        int fanout;
+    }
+
+    /** One batch of tasks a model thread took from its queue and ran. */
+    @Name("org.cis1200.DispatchBatch")
+    @Label("Dispatch Batch")
+    @Description("A model thread running a batch of tasks and flushing their responses")
+    @Category("PennPals")
+    @StackTrace(false)
+    static final class DispatchBatch extends Event {
+        @Label("Shard")
+        int shard;
+
+        @Label("Tasks")
+        int tasks;
+
+        @Label("Lines")
+        @Description("Lines handed to the outbound queues")
+        int lines;
+
+        @Label("Connections")
+        @Description("Connections flushed at the end of the batch")
+        int connections;
+    }
+
+    /** A client disconnected for not reading its responses fast enough. */
+    @Name("org.cis1200.SlowConsumer")
+    @Label("Slow Consumer")
+    @Description("A client whose outbound queue overflowed")
+    @Category("PennPals")
+    @StackTrace(false)
+    static final class SlowConsumer extends Event {
+        @Label("User")
+        int userId;
+
+        @Label("Queue Capacity")
+        int capacity;
+    }
+
+    /** How many tasks are waiting for a model thread, sampled periodically. */
+    @Name("org.cis1200.QueueBacklog")
+    @Label("Queue Backlog")
+    @Description("Tasks waiting in a model thread's queue, and lines waiting to be written")
+    @Category("PennPals")
+    @StackTrace(false)
+    @Period("1 s")
+    static final class QueueBacklog extends Event {
+        @Label("Shard")
+        int shard;
+
+        @Label("Queued Tasks")
+        int depth;
+
+        @Label("Queued Lines")
+        @Description("Lines waiting in all the outbound queues")
+        long outboundLines;
+    }
+
+    // Prevent the instantiation of FlightEvents objects
+    private FlightEvents() {
+    }
+}
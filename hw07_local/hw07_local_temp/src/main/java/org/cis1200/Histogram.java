@@ -0,0 +1,163 @@
+package org.cis1200;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@code Histogram} counts non-negative values, such as latencies in
+ * nanoseconds, so that percentiles can be read back without keeping every
+ * value.
+ *
+ * Buckets are log-linear, as in HdrHistogram: every power of two is split
+ * into 64 equal buckets, so any value is reported within 1/64 (about 1.6%)
+ * of what was recorded, from single nanoseconds up to {@link Long#MAX_VALUE},
+ * in a fixed 3712 counters.
+ *
+ * Any number of threads may record at once without locking. Reading while
+ * others record gives a result that may miss the latest values, but is
+ * otherwise consistent enough for reporting.
+ */
+final class Histogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Counts a value. Negative values are counted as 0.
+     *
+     * @param value the value
+     */
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * Adds every value counted by another histogram to this one.
+     *
+     * @param other the other histogram
+     */
+    void add(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = other.counts.get(i);
+            if (n != 0) {
+                counts.addAndGet(i, n);
+            }
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max.get());
+    }
+
+    /** Forgets every value counted so far. */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /** @return the number of values counted */
+    long getCount() {
+        return count.sum();
+    }
+
+    /** @return the total of the values counted */
+    long getSum() {
+        return sum.sum();
+    }
+
+    /** @return the largest value counted, or 0 if there are none */
+    long getMax() {
+        return max.get();
+    }
+
+    /** @return the mean of the values counted, or 0 if there are none */
+    double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param percentile between 0 and 100, such as 99.9
+     * @return the smallest value such that at least that percentage of the
+     *         values counted are no larger, to within the precision of the
+     *         buckets; 0 if there are none
+     */
+    long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Summarizes the histogram, taking its values to be nanoseconds.
+     *
+     * @param unit the unit to report in
+     * @return the count, p50, p99, p999 and maximum
+     */
+    String summary(TimeUnit unit) {
+        return String.format(
+                "n=%d p50=%d p99=%d p999=%d max=%d (%s)",
+                getCount(),
+                unit.convert(getValueAtPercentile(50), TimeUnit.NANOSECONDS),
+                unit.convert(getValueAtPercentile(99), TimeUnit.NANOSECONDS),
+                unit.convert(getValueAtPercentile(99.9), TimeUnit.NANOSECONDS),
+                unit.convert(getMax(), TimeUnit.NANOSECONDS),
+                unit.name().toLowerCase()
+        );
+    }
+
+    // ==========================================================================
+    // Bucket arithmetic
+    // ==========================================================================
+
+    /*
+     * Values below 2 * SUB_BUCKETS have a bucket each. Above that, a value is
+     * shifted right until it has SUB_BUCKET_BITS + 1 bits, and each shift
+     * adds another SUB_BUCKETS buckets.
+     */
+    static int bucketOf(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        long lowest = (long) (bucket - (shift << SUB_BUCKET_BITS)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,64 @@
+package org.cis1200;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A {@code LineDecoder} splits the bytes read from a non-blocking socket into
+ * lines, following the same rules as {@link java.io.BufferedReader#readLine}:
+ * a line ends at {@code '\n'}, {@code '\r'} or {@code "\r\n"}, and the
+ * terminator is not part of the line. Lines are decoded as UTF-8.
+ *
+ * Bytes of an unfinished line are kept until the rest of it arrives, so a
+ * line may be split across any number of reads.
+ */
+final class LineDecoder {
+
+    private byte[] partial = new byte[256];
+    private int partialLength = 0;
+    private boolean skipLineFeed = false;
+
+    /**
+     * Consumes every remaining byte of the buffer, handing each completed
+     * line to the consumer in order.
+     *
+     * @param buffer bytes read from the socket, ready to be read
+     * @param lines  receives each completed line
+     */
+    void decode(ByteBuffer buffer, Consumer<String> lines) {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (b == '\n') {
+                    continue;
+                }
+            }
+            if (b == '\n' || b == '\r') {
+                skipLineFeed = b == '\r';
+                lines.accept(new String(partial, 0, partialLength, StandardCharsets.UTF_8));
+                partialLength = 0;
+            } else {
+                if (partialLength == partial.length) {
+                    partial = Arrays.copyOf(partial, partial.length * 2);
+                }
+                partial[partialLength++] = b;
+            }
+        }
+    }
+
+    /**
+     * Called when the peer closes its side of the connection. Like
+     * {@code readLine}, a final line without a terminator is still delivered.
+     *
+     * @param lines receives the final line, if there is one
+     */
+    void finish(Consumer<String> lines) {
+        if (partialLength > 0) {
+            lines.accept(new String(partial, 0, partialLength, StandardCharsets.UTF_8));
+            partialLength = 0;
+        }
+    }
+}
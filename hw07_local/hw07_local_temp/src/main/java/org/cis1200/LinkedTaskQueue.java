@@ -0,0 +1,30 @@
+package org.cis1200;
+
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The original, unbounded {@link TaskQueue}: a {@link LinkedBlockingQueue},
+ * drained a batch at a time. The consumer always blocks while it waits.
+ *
+ * @param <T> the type of the tasks
+ */
+final class LinkedTaskQueue<T> implements TaskQueue<T> {
+    private final LinkedBlockingQueue<T> queue = new LinkedBlockingQueue<>();
+
+    @Override
+    public void add(T task) {
+        queue.add(task);
+    }
+
+    @Override
+    public int take(Collection<? super T> batch, int max) throws InterruptedException {
+        batch.add(queue.take());
+        return 1 + queue.drainTo(batch, max - 1);
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+}
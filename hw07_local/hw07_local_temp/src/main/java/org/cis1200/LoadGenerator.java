@@ -0,0 +1,540 @@
+package org.cis1200;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A headless {@code LoadGenerator} connects many clients to a server and
+ * has them talk to each other over the line protocol, to measure how fast
+ * messages get through.
+ *
+ * Every MESG carries the {@link System#nanoTime()} at which it was due to be
+ * sent, and every member of the channel that receives it records how long it
+ * took into a {@link Histogram}. Timing from when a message was due rather
+ * than when it was written means that a generator that falls behind does not
+ * hide the stall that made it fall behind. The clients all live in this JVM,
+ * so their clocks agree.
+ *
+ * Run it with a scenario file of {@code key=value} lines, and optionally
+ * options that override it:
+ *
+ * <pre>
+ *   java -cp target/classes org.cis1200.LoadGenerator scenario.properties [key=value ...]
+ * </pre>
+ *
+ * <pre>
+ *   embedded=false      true starts a server in this JVM, configured by the
+ *                       server.* options (e.g. server.transport=nio)
+ *   host=localhost      the server to load, unless embedded
+ *   port=21212
+ *   connections=100     clients to connect
+ *   channels=10         channels to create, each owned by a random client
+ *   channelSize=fixed:10
+ *                       members per channel, owner included: fixed:N |
+ *                       uniform:MIN:MAX | zipf:S:MAX (the k-th channel has MAX/k^S)
+ *   messageRate=1000    messages per second from all clients together; each
+ *                       goes to a random channel from a random member
+ *   messageBytes=32     the least length of a message's text
+ *   churnRate=0         times per second that a member leaves a random channel
+ *                       and a client outside it joins
+ *   warmupSeconds=2     how long to run before measuring
+ *   durationSeconds=10  how long to measure for
+ *   drainMillis=1000    the longest to wait for messages still on their way
+ *   seed                for the random choices (default: new every run)
+ * </pre>
+ */
+public final class LoadGenerator {
+    private static final long SETUP_TIMEOUT_SECONDS = 30;
+
+    private final Properties scenario;
+    private final int connectionCount;
+    private final int channelCount;
+    private final String channelSize;
+    private final double messageRate;
+    private final int messageBytes;
+    private final double churnRate;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final long drainNanos;
+    private final Random random;
+
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<Channel> channels = new ArrayList<>();
+
+    // Written by the readers
+    private final Histogram latency = new Histogram();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile CountDownLatch setupReplies = new CountDownLatch(0);
+    private volatile long measureFrom;
+    private volatile long measureUntil;
+
+    /**
+     * @param scenario the options described above
+     * @throws IllegalArgumentException if an option has a malformed value
+     */
+    LoadGenerator(Properties scenario) {
+        this.scenario = scenario;
+        connectionCount = ServerConfig.intOption(scenario, "connections", 100);
+        channelCount = ServerConfig.intOption(scenario, "channels", 10);
+        channelSize = scenario.getProperty("channelSize", "fixed:10").trim();
+        messageRate = ServerConfig.doubleOption(scenario, "messageRate", 1000);
+        messageBytes = ServerConfig.intOption(scenario, "messageBytes", 32);
+        churnRate = ServerConfig.doubleOption(scenario, "churnRate", 0);
+        warmupNanos = seconds(ServerConfig.doubleOption(scenario, "warmupSeconds", 2));
+        durationNanos = seconds(ServerConfig.doubleOption(scenario, "durationSeconds", 10));
+        drainNanos = TimeUnit.MILLISECONDS.toNanos(
+                ServerConfig.intOption(scenario, "drainMillis", 1000));
+        String seed = scenario.getProperty("seed");
+        random = seed == null ? new Random() : new Random(Long.parseLong(seed.trim()));
+        if (connectionCount < 1 || channelCount < 0 || messageRate < 0 || churnRate < 0
+                || durationNanos <= 0 || warmupNanos < 0) {
+            throw new IllegalArgumentException(
+                    "connections and durationSeconds must be positive, "
+                            + "and the other counts and rates not negative");
+        }
+    }
+
+    /**
+     * Entry point for the load generator
+     *
+     * @param args the scenario file, then any {@code key=value} overrides
+     * @throws Exception if the server cannot be reached
+     */
+    public static void main(String[] args) throws Exception {
+        Properties scenario = new Properties();
+        int first = 0;
+        if (args.length > 0 && args[0].indexOf('=') < 0) {
+            try (Reader in = new FileReader(args[0], StandardCharsets.UTF_8)) {
+                scenario.load(in);
+            }
+            first = 1;
+        }
+        for (int i = first; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + args[i]);
+            }
+            scenario.setProperty(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+        System.out.println(new LoadGenerator(scenario).run());
+    }
+
+    /**
+     * Runs the scenario: starts the server if it is embedded, connects the
+     * clients and sets up the channels, then sends messages through the
+     * warmup and the measurement, and disconnects.
+     *
+     * @return what was measured
+     * @throws IOException          if the server cannot be reached
+     * @throws InterruptedException if interrupted while setting up
+     */
+    Report run() throws IOException, InterruptedException {
+        ServerBackend server = null;
+        String host = scenario.getProperty("host", "localhost").trim();
+        int port = ServerConfig.intOption(scenario, "port", 21212);
+        if (Boolean.parseBoolean(scenario.getProperty("embedded", "false").trim())) {
+            server = startServer();
+            host = "localhost";
+            port = server.getLocalPort();
+        }
+        try {
+            connect(host, port);
+            createChannels();
+            return generate();
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private ServerBackend startServer() throws InterruptedException {
+        Properties options = new Properties();
+        options.setProperty("requestLog", "off");
+        options.setProperty("responseLog", "off");
+        for (String key : scenario.stringPropertyNames()) {
+            if (key.startsWith("server.")) {
+                options.setProperty(key.substring(7), scenario.getProperty(key));
+            }
+        }
+        options.setProperty("port", "0");
+        ServerBackend server = new ServerBackend(new ServerModel(), new ServerConfig(options));
+        new Thread(server, "Connection acceptor").start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SETUP_TIMEOUT_SECONDS);
+        while (server.getLocalPort() <= 0) {
+            if (System.nanoTime() - deadline > 0) {
+                server.stop();
+                throw new IllegalStateException("The embedded server did not start");
+            }
+            Thread.sleep(10);
+        }
+        return server;
+    }
+
+    // ==========================================================================
+    // Setting up
+    // ==========================================================================
+
+    private void connect(String host, int port) throws IOException {
+        for (int i = 0; i < connectionCount; i++) {
+            Connection connection = new Connection(new Socket(host, port));
+            connections.add(connection);
+            // The first line names the client: ":User0 CONNECT"
+            String line = connection.in.readLine();
+            if (line == null || !line.endsWith(" CONNECT")) {
+                throw new IOException("Expected CONNECT but got " + line);
+            }
+            connection.nickname = line.substring(1, line.indexOf(' '));
+            Thread reader = new Thread(null, connection, "Load reader " + i, 256 * 1024);
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /*
+     * Creates every channel, then has its members join. Each step waits for
+     * the server to answer every command, so the measurement starts with
+     * the channels complete.
+     */
+    private void createChannels() throws IOException, InterruptedException {
+        int[] order = new int[connectionCount];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int c = 0; c < channelCount; c++) {
+            int size = Math.max(1, Math.min(connectionCount, sizeOf(c)));
+            Channel channel = new Channel("load" + c);
+            // Partial Fisher-Yates shuffle: the first size entries are the members
+            for (int i = 0; i < size; i++) {
+                int j = i + random.nextInt(order.length - i);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+                channel.add(connections.get(order[i]));
+            }
+            channels.add(channel);
+        }
+
+        CountDownLatch created = expectReplies(channelCount);
+        for (Channel channel : channels) {
+            channel.members.get(0).send("CREATE " + channel.name + " 0");
+        }
+        awaitReplies(created, "CREATE");
+
+        int joins = 0;
+        for (Channel channel : channels) {
+            joins += channel.members.size() - 1;
+        }
+        CountDownLatch joined = expectReplies(joins);
+        for (Channel channel : channels) {
+            for (Connection member : channel.members.subList(1, channel.members.size())) {
+                member.send("JOIN " + channel.name);
+            }
+        }
+        awaitReplies(joined, "JOIN");
+    }
+
+    private CountDownLatch expectReplies(int replies) {
+        CountDownLatch latch = new CountDownLatch(replies);
+        setupReplies = latch;
+        return latch;
+    }
+
+    private static void awaitReplies(CountDownLatch latch, String command)
+            throws InterruptedException {
+        if (!latch.await(SETUP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(
+                    latch.getCount() + " " + command + " commands were not answered");
+        }
+    }
+
+    private int sizeOf(int channel) {
+        String[] spec = channelSize.split(":");
+        try {
+            switch (spec[0]) {
+                case "fixed":
+                    return Integer.parseInt(spec[1]);
+                case "uniform":
+                    int min = Integer.parseInt(spec[1]);
+                    int max = Integer.parseInt(spec[2]);
+                    return min + random.nextInt(max - min + 1);
+                case "zipf":
+                    double exponent = Double.parseDouble(spec[1]);
+                    int largest = Integer.parseInt(spec[2]);
+                    return Math.max(1, (int) Math.round(largest / Math.pow(channel + 1, exponent)));
+                default:
+                    break;
+            }
+        } catch (RuntimeException rx) {
+            // reported below
+        }
+        throw new IllegalArgumentException(
+                "channelSize must be fixed:N, uniform:MIN:MAX or zipf:S:MAX: " + channelSize);
+    }
+
+    // ==========================================================================
+    // Generating load
+    // ==========================================================================
+
+    /*
+     * Sends messages and churns channels on this thread, each at its own
+     * steady rate. Times are relative to the start, so that "never" can be
+     * Long.MAX_VALUE.
+     */
+    private Report generate() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long end = warmupNanos + durationNanos;
+        measureFrom = start + warmupNanos;
+        measureUntil = start + end;
+        long messageInterval = interval(messageRate);
+        long churnInterval = interval(churnRate);
+        long nextMessage = channels.isEmpty() ? Long.MAX_VALUE : 0;
+        long nextChurn = channels.isEmpty() ? Long.MAX_VALUE : churnInterval;
+        long sent = 0;
+        long expected = 0;
+        long churned = 0;
+
+        while (true) {
+            long due = Math.min(nextMessage, nextChurn);
+            if (due >= end) {
+                break;
+            }
+            long wait = start + due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            if (due == nextMessage) {
+                int recipients = sendMessage(start + due);
+                if (due >= warmupNanos) {
+                    sent++;
+                    expected += recipients;
+                }
+                nextMessage += messageInterval;
+            } else {
+                churn();
+                churned++;
+                nextChurn += churnInterval;
+            }
+        }
+
+        // Let the messages still on their way arrive
+        long deadline = System.nanoTime() + drainNanos;
+        while (delivered.sum() < expected && System.nanoTime() - deadline < 0) {
+            Thread.sleep(1);
+        }
+        return new Report(
+                durationNanos, sent, expected, delivered.sum(), errors.sum(), churned, latency
+        );
+    }
+
+    private static long interval(double rate) {
+        return rate > 0 ? Math.max(1, (long) (1_000_000_000L / rate)) : Long.MAX_VALUE;
+    }
+
+    private static long seconds(double seconds) {
+        return (long) (seconds * 1_000_000_000L);
+    }
+
+    private int sendMessage(long dueAt) throws IOException {
+        Channel channel = channels.get(random.nextInt(channels.size()));
+        Connection sender = channel.members.get(random.nextInt(channel.members.size()));
+        StringBuilder line = new StringBuilder("MESG ")
+                .append(channel.name).append(" :").append(dueAt).append(' ');
+        for (int i = line.length(); i < messageBytes + channel.name.length() + 7; i++) {
+            line.append('x');
+        }
+        sender.send(line.toString());
+        return channel.members.size();
+    }
+
+    /*
+     * A member other than the owner leaves a random channel, and a client
+     * that is not a member joins it, so the channel keeps its size.
+     */
+    private void churn() throws IOException {
+        Channel channel = channels.get(random.nextInt(channels.size()));
+        if (channel.members.size() > 1) {
+            Connection leaver = channel.members.get(1 + random.nextInt(channel.members.size() - 1));
+            leaver.send("LEAVE " + channel.name);
+            channel.remove(leaver);
+        }
+        if (channel.members.size() < connectionCount) {
+            Connection joiner;
+            do {
+                joiner = connections.get(random.nextInt(connectionCount));
+            } while (channel.memberSet.contains(joiner));
+            joiner.send("JOIN " + channel.name);
+            channel.add(joiner);
+        }
+    }
+
+    /*
+     * The generator's own view of a channel's members, owner first. Only the
+     * thread generating load reads or changes it.
+     */
+    private static final class Channel {
+        final String name;
+        final List<Connection> members = new ArrayList<>();
+        final Set<Connection> memberSet = new HashSet<>();
+
+        Channel(String name) {
+            this.name = name;
+        }
+
+        void add(Connection connection) {
+            members.add(connection);
+            memberSet.add(connection);
+        }
+
+        void remove(Connection connection) {
+            // Swap with the last member, keeping the owner at the front
+            int index = members.indexOf(connection);
+            Connection last = members.remove(members.size() - 1);
+            if (last != connection) {
+                members.set(index, last);
+            }
+            memberSet.remove(connection);
+        }
+    }
+
+    // ==========================================================================
+    // Clients
+    // ==========================================================================
+
+    /**
+     * One client. Lines are only sent by one thread at a time, first the one
+     * setting up and then the one generating load; a reader thread of its
+     * own handles every line received.
+     */
+    private final class Connection implements Runnable {
+        final Socket socket;
+        final BufferedReader in;
+        final Writer out;
+        String nickname;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        void send(String line) throws IOException {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException iox) {
+                // already closed
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    received(line, System.nanoTime());
+                }
+            } catch (IOException iox) {
+                // closed at the end of the run
+            }
+        }
+
+        private void received(String line, long now) {
+            // ":User3 MESG load0 :<due> xxx"
+            int mesg = line.indexOf(" MESG ");
+            if (mesg >= 0) {
+                int text = line.indexOf(" :", mesg + 6) + 2;
+                int stamp = line.indexOf(' ', text);
+                long dueAt;
+                try {
+                    dueAt = Long.parseLong(line.substring(text, stamp < 0 ? line.length() : stamp));
+                } catch (RuntimeException rx) {
+                    return; // not one of ours
+                }
+                if (dueAt - measureFrom >= 0 && dueAt - measureUntil < 0) {
+                    latency.record(now - dueAt);
+                    delivered.increment();
+                }
+            } else if (line.contains(" ERROR ")) {
+                errors.increment();
+            } else if (line.startsWith(":" + nickname + " ")
+                    && (line.contains(" CREATE ") || line.contains(" NAMES "))) {
+                // The owner's echo of CREATE, or the NAMES a joining member gets
+                setupReplies.countDown();
+            }
+        }
+    }
+
+    // ==========================================================================
+    // Results
+    // ==========================================================================
+
+    /**
+     * What a run measured. Only messages due during the measurement count;
+     * those of the warmup do not.
+     */
+    static final class Report {
+        final long nanos;
+        final long messages;
+        final long expectedDeliveries;
+        final long deliveries;
+        final long errors;
+        final long churns;
+        final Histogram latency;
+
+        Report(long nanos, long messages, long expectedDeliveries, long deliveries,
+               long errors, long churns, Histogram latency) {
+            this.nanos = nanos;
+            this.messages = messages;
+            this.expectedDeliveries = expectedDeliveries;
+            this.deliveries = deliveries;
+            this.errors = errors;
+            this.churns = churns;
+            this.latency = latency;
+        }
+
+        private double perSecond(long count) {
+            return count * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Messages sent:      %d (%.1f/s)%n"
+                            + "Deliveries:         %d of %d expected (%.1f/s)%n"
+                            + "Errors received:    %d%n"
+                            + "Leaves and joins:   %d%n"
+                            + "Delivery latency:   %s%n",
+                    messages, perSecond(messages),
+                    deliveries, expectedDeliveries, perSecond(deliveries),
+                    errors, churns, latency.summary(TimeUnit.MICROSECONDS)
+            );
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.cis1200;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A {@code Metrics} registry holds the counters, gauges and histograms a
+ * {@link ServerBackend} keeps about itself.
+ *
+ * <ul>
+ *   <li>A counter is a {@link LongAdder} that the server adds to as things
+ *       happen, cheaply from any number of threads.</li>
+ *   <li>A gauge is read only when asked for, from a counter the server
+ *       keeps anyway (such as the size of a map). A family of gauges reads
+ *       a whole map at once, one series per key, for things that come and
+ *       go, such as clients.</li>
+ *   <li>A {@link Histogram} records durations in nanoseconds, or sizes.</li>
+ * </ul>
+ *
+ * Nothing is pushed anywhere: {@link #snapshot()} reads every metric when
+ * called, and {@link #serve(int)} publishes the same values as plain text
+ * on a port that only this machine can reach, for a scraper to poll.
+ *
+ * Names follow the Prometheus conventions, labels included, such as
+ * {@code command_execution_nanos{command="MessageCommand"}}. A histogram
+ * appears as its 50th, 99th and 99.9th percentiles ({@code quantile}
+ * labels), its {@code _count}, {@code _sum} and {@code _max}.
+ */
+final class Metrics {
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, GaugeFamily> families = new ConcurrentHashMap<>();
+
+    /** Gauges that share a name and differ in the value of one label. */
+    private static final class GaugeFamily {
+        final String label;
+        final Supplier<Map<?, Long>> values;
+
+        GaugeFamily(String label, Supplier<Map<?, Long>> values) {
+            this.label = label;
+            this.values = values;
+        }
+    }
+
+    private volatile HttpServer httpServer;
+
+    /**
+     * @param name the counter's name
+     * @return the counter, created on first use
+     */
+    LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Registers a gauge, replacing any other of the same name.
+     *
+     * @param name  the gauge's name
+     * @param value reads the gauge's value; called on the thread taking a
+     *              snapshot, so it must be thread-safe
+     */
+    void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Registers a family of gauges, replacing any other of the same name.
+     * Each entry of the map becomes a series labelled with its key, such as
+     * {@code name{user="3"}}; keys must not contain quotes or backslashes.
+     *
+     * @param name   the gauges' name
+     * @param label  the label that tells the series apart
+     * @param values reads the value of every series by its label value;
+     *               called on the thread taking a snapshot, so it must be
+     *               thread-safe
+     */
+    void gaugeFamily(String name, String label, Supplier<Map<?, Long>> values) {
+        families.put(name, new GaugeFamily(label, values));
+    }
+
+    /**
+     * @param name the histogram's name
+     * @return the histogram, created on first use
+     */
+    Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * Reads every metric. Each value is read on its own, while the server
+     * goes on changing the others.
+     *
+     * @return the value of every counter, gauge and histogram series, by name
+     */
+    SortedMap<String, Long> snapshot() {
+        SortedMap<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        families.forEach((name, family) -> family.values.get().forEach((key, value) ->
+                values.put(withLabel(name, family.label + "=\"" + key + "\""), value)));
+        histograms.forEach((name, histogram) -> {
+            values.put(withLabel(name, "quantile=\"0.5\""), histogram.getValueAtPercentile(50));
+            values.put(withLabel(name, "quantile=\"0.99\""), histogram.getValueAtPercentile(99));
+            values.put(withLabel(name, "quantile=\"0.999\""), histogram.getValueAtPercentile(99.9));
+            values.put(withSuffix(name, "_count"), histogram.getCount());
+            values.put(withSuffix(name, "_sum"), histogram.getSum());
+            values.put(withSuffix(name, "_max"), histogram.getMax());
+        });
+        return values;
+    }
+
+    /**
+     * @return a snapshot in the Prometheus text format: one
+     *         {@code name value} line per series
+     */
+    String format() {
+        StringBuilder text = new StringBuilder();
+        snapshot().forEach((name, value) -> text.append(name).append(' ').append(value).append('\n'));
+        return text.toString();
+    }
+
+    // ==========================================================================
+    // Text endpoint
+    // ==========================================================================
+
+    /**
+     * Starts answering {@code GET /metrics} with {@link #format()} on the
+     * loopback interface.
+     *
+     * @param port the port, or 0 for any free one
+     * @throws IOException if the port cannot be bound
+     */
+    void serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0
+        );
+        server.createContext("/metrics", this::handle);
+        server.start();
+        httpServer = server;
+    }
+
+    /**
+     * @return the port the endpoint is listening on, or -1 if it is not
+     */
+    int getPort() {
+        HttpServer server = httpServer;
+        return server != null ? server.getAddress().getPort() : -1;
+    }
+
+    /** Stops the endpoint, if it was started. */
+    void stopServing() {
+        HttpServer server = httpServer;
+        httpServer = null;
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = format().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    // ==========================================================================
+    // Names
+    // ==========================================================================
+
+    /**
+     * @param name  a metric name, with or without labels
+     * @param label a label such as {@code shard="0"}
+     * @return the name with the label added
+     */
+    static String withLabel(String name, String label) {
+        int brace = name.indexOf('{');
+        return brace < 0
+                ? name + "{" + label + "}"
+                : name.substring(0, name.length() - 1) + "," + label + "}";
+    }
+
+    private static String withSuffix(String name, String suffix) {
+        int brace = name.indexOf('{');
+        return brace < 0 ? name + suffix : name.substring(0, brace) + suffix + name.substring(brace);
+    }
+}
@@ -0,0 +1,113 @@
+package org.cis1200;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A {@code NicknameAllocator} hands out default nicknames of the form
+ * "UserX", always choosing the smallest non-negative X whose nickname is not
+ * in use. It is told about every nickname that appears or disappears, and
+ * remembers which suffixes are taken, so allocating never has to look at the
+ * registered users.
+ *
+ * Only the canonical spelling of a suffix counts: a user who picks "User007"
+ * does not block "User7".
+ */
+final class NicknameAllocator {
+
+    private static final String PREFIX = "User";
+
+    // Suffixes up to this bound live in the bit set; a user may pick a name
+    // like "User999999999" by hand, and that must not allocate 120MB of bits.
+    private static final int MAX_DENSE_SUFFIX = 1 << 20;
+
+    private final BitSet taken = new BitSet();
+    private final Set<Integer> takenSparse = new HashSet<>();
+
+    // Every suffix below this one is taken
+    private int lowestFree = 0;
+
+    /**
+     * Picks the smallest free default nickname and marks it as taken.
+     *
+     * @return the new nickname
+     */
+    String allocate() {
+        int suffix = lowestFree;
+        while (suffix > MAX_DENSE_SUFFIX && takenSparse.contains(suffix)) {
+            suffix++;
+        }
+        mark(suffix);
+        return PREFIX + suffix;
+    }
+
+    /**
+     * Records that a nickname is now in use. Nicknames that are not of the
+     * form "UserX" are ignored.
+     *
+     * @param nickname the nickname a user has taken
+     */
+    void claim(String nickname) {
+        int suffix = suffixOf(nickname);
+        if (suffix >= 0) {
+            mark(suffix);
+        }
+    }
+
+    /**
+     * Records that a nickname is no longer in use. Nicknames that are not of
+     * the form "UserX" are ignored.
+     *
+     * @param nickname the nickname a user has given up
+     */
+    void release(String nickname) {
+        int suffix = suffixOf(nickname);
+        if (suffix < 0) {
+            return;
+        }
+        if (suffix <= MAX_DENSE_SUFFIX) {
+            taken.clear(suffix);
+            lowestFree = Math.min(lowestFree, suffix);
+        } else {
+            takenSparse.remove(suffix);
+        }
+    }
+
+    private void mark(int suffix) {
+        if (suffix > MAX_DENSE_SUFFIX) {
+            takenSparse.add(suffix);
+            return;
+        }
+        taken.set(suffix);
+        if (suffix == lowestFree) {
+            lowestFree = taken.nextClearBit(suffix + 1);
+        }
+    }
+
+    /**
+     * Helper for {@link #claim(String)} and {@link #release(String)}.
+     *
+     * @param nickname any nickname
+     * @return X if the nickname is exactly "User" followed by the decimal
+     *         digits of X (no leading zeros, at most nine digits), or -1
+     */
+    private static int suffixOf(String nickname) {
+        int digits = nickname.length() - PREFIX.length();
+        if (digits < 1 || digits > 9 || !nickname.startsWith(PREFIX)) {
+            return -1;
+        }
+        if (digits > 1 && nickname.charAt(PREFIX.length()) == '0') {
+            return -1;
+        }
+        int suffix = 0;
+        for (int i = PREFIX.length(); i < nickname.length(); i++) {
+            char c = nickname.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            suffix = suffix * 10 + (c - '0');
+        }
+        return suffix;
+    }
+}
@@ -0,0 +1,397 @@
+package org.cis1200;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@code NioTransport} serves clients with non-blocking socket channels
+ * instead of one thread per connection. The accept loop hands every new
+ * channel to one of a small, fixed number of event loops, and each event
+ * loop multiplexes all of its channels over a single {@link Selector}.
+ *
+ * Incoming bytes are split into lines by a per-connection
+ * {@link LineDecoder} and passed to the {@link ServerBackend}, which queues
+ * them for the model thread exactly like the blocking transport does.
+ * Outgoing lines go into the connection's {@link OutboundQueue} and are
+ * written by its event loop whenever the socket is writable, so the model
+ * thread never waits on a slow client. All the lines waiting for a client
+ * are written with one gathering write, optionally after lingering for
+ * {@code writeLingerMicros} to let more lines arrive.
+ */
+final class NioTransport {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_GATHER = 64;
+
+    private final ServerBackend backend;
+    private final long lingerNanos;
+    private final EventLoop[] loops;
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * Opens the listening channel and the selectors for the event loops. No
+     * threads are started until {@link #serve()} is called.
+     *
+     * @param backend    the backend that receives connection events
+     * @param port       the port to listen on (0 picks a free port)
+     * @param eventLoops the number of selector threads
+     * @param lingerMicros how long to wait for more lines before writing
+     * @throws IOException if the port cannot be bound
+     */
+    NioTransport(ServerBackend backend, int port, int eventLoops, int lingerMicros)
+            throws IOException {
+        this.backend = backend;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new EventLoop(Selector.open());
+        }
+    }
+
+    /** @return the port the transport is listening on */
+    int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Starts the event loops and then accepts connections on the calling
+     * thread until the transport is closed or the backend stops.
+     *
+     * @throws IOException if accepting fails for a reason other than
+     *                     {@link #close()}
+     */
+    void serve() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            new Thread(loops[i], "Event loop " + i).start();
+        }
+        int next = 0;
+        while (backend.isRunning() && serverChannel.isOpen()) {
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+            NioConnection connection = new NioConnection(loops[next], channel);
+            // Ids are handed out here so that they follow the accept order,
+            // and before the loop can read anything from the channel
+            connection.userId = backend.connectionOpened(connection);
+            loops[next].adopt(connection);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    /**
+     * Stops accepting, shuts down the event loops and closes every channel
+     * they own.
+     */
+    void close() {
+        try {
+            serverChannel.close();
+        } catch (IOException iox) {
+            iox.printStackTrace();
+        }
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    // ==========================================================================
+    // EventLoop
+    // ==========================================================================
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>(); // loop thread only
+        private volatile Thread thread;
+        private volatile boolean open = true;
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Registers a freshly accepted connection with this loop. Lines may
+         * already have been flushed to it, in which case it starts out
+         * waiting to write as well.
+         */
+        void adopt(NioConnection connection) {
+            execute(() -> {
+                try {
+                    int ops = SelectionKey.OP_READ;
+                    if (connection.writeScheduled.get()) {
+                        ops |= SelectionKey.OP_WRITE;
+                    }
+                    connection.key = connection.channel.register(selector, ops, connection);
+                } catch (IOException iox) {
+                    iox.printStackTrace();
+                    connection.disconnect();
+                }
+            });
+        }
+
+        /** Runs the task on this loop's thread before its next select. */
+        void execute(Runnable task) {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+
+        /** Runs the task on this loop's thread once the delay has passed. */
+        void schedule(Runnable task, long delayNanos) {
+            long deadline = System.nanoTime() + delayNanos;
+            execute(() -> timers.add(new Timer(deadline, task)));
+        }
+
+        void shutdown() {
+            open = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            try {
+                while (open) {
+                    Timer next = timers.peek();
+                    if (next == null) {
+                        selector.select();
+                    } else {
+                        long wait = next.deadline - System.nanoTime();
+                        if (wait > 0) {
+                            // round up, since select(0) would wait forever
+                            selector.select((wait + 999_999) / 1_000_000);
+                        } else {
+                            selector.selectNow();
+                        }
+                    }
+                    Runnable task;
+                    while ((task = pendingTasks.poll()) != null) {
+                        task.run();
+                    }
+                    long now = System.nanoTime();
+                    while ((next = timers.peek()) != null && next.deadline - now <= 0) {
+                        timers.poll().task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (connection == null || !key.isValid()) {
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            connection.onReadable(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException x) {
+                if (open) {
+                    x.printStackTrace();
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key.channel());
+                }
+                try {
+                    selector.close();
+                } catch (IOException iox) {
+                    iox.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        private final long deadline;
+        private final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer that) {
+            return Long.compare(this.deadline - that.deadline, 0);
+        }
+    }
+
+    // ==========================================================================
+    // NioConnection
+    // ==========================================================================
+
+    private final class NioConnection implements ClientConnection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final LineDecoder decoder = new LineDecoder();
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        // Filled by the model thread, drained by the loop
+        private final OutboundQueue outbound;
+        private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+
+        // Only touched by the event loop thread
+        private SelectionKey key;
+        private final List<byte[]> drained = new ArrayList<>(MAX_GATHER);
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        private int gatherStart = 0; // gather[gatherStart, gatherEnd) is unwritten
+        private int gatherEnd = 0;
+
+        // Assigned by the accept thread before the loop registers the channel
+        private volatile int userId;
+
+        NioConnection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            // The loop only writes once flushed, so a full queue must flush
+            // itself before it waits for the loop to make room
+            this.outbound = backend.newOutboundQueue(this::flush);
+        }
+
+        @Override
+        public void send(byte[] encodedLine, boolean mayWait) {
+            // Only an event loop can make room, so none of them may wait
+            if (!outbound.offer(encodedLine, mayWait && !onEventLoop())) {
+                backend.slowConsumer(userId);
+                // Later lines are discarded by the closed queue. The caller
+                // may be a model thread, or hold the StripedModel's locks,
+                // so the disconnection is reported by the loop, just as the
+                // blocking transport leaves it to the reader
+                outbound.close();
+                loop.execute(this::disconnect);
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (outbound.size() == 0 || !writeScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            Runnable watchWritable = () -> {
+                if (key != null && key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            };
+            if (lingerNanos > 0) {
+                loop.schedule(watchWritable, lingerNanos);
+            } else {
+                loop.execute(watchWritable);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                outbound.close();
+                closeQuietly(channel);
+            }
+        }
+
+        void onReadable(ByteBuffer readBuffer) {
+            try {
+                readBuffer.clear();
+                int n = channel.read(readBuffer);
+                if (n < 0) {
+                    decoder.finish(line -> backend.lineReceived(userId, line));
+                    disconnect();
+                } else if (n > 0) {
+                    backend.bytesReceived(n);
+                    readBuffer.flip();
+                    decoder.decode(readBuffer, line -> backend.lineReceived(userId, line));
+                }
+            } catch (IOException iox) {
+                iox.printStackTrace();
+                disconnect();
+            }
+        }
+
+        void onWritable() {
+            try {
+                while (true) {
+                    if (gatherStart == gatherEnd) {
+                        gatherStart = 0;
+                        gatherEnd = outbound.drainTo(drained, MAX_GATHER);
+                        if (gatherEnd == 0) {
+                            break;
+                        }
+                        for (int i = 0; i < gatherEnd; i++) {
+                            // Broadcasts share the array, so each connection
+                            // gets its own view
+                            gather[i] = ByteBuffer.wrap(drained.get(i));
+                        }
+                        drained.clear();
+                    }
+                    int first = gatherStart;
+                    long start = System.nanoTime();
+                    long written = channel.write(gather, gatherStart, gatherEnd - gatherStart);
+                    long end = System.nanoTime();
+                    backend.bytesWritten(written, end - start);
+                    while (gatherStart < gatherEnd && !gather[gatherStart].hasRemaining()) {
+                        backend.lineWritten(gather[gatherStart].array(), userId, end);
+                        gather[gatherStart++] = null;
+                    }
+                    backend.getOutboundStats().recordWrite(gatherStart - first);
+                    if (gatherStart < gatherEnd) {
+                        return;
+                    }
+                }
+                // A line flushed after the drain above either sees the flag
+                // cleared and schedules a write itself, or is seen here
+                writeScheduled.set(false);
+                if (outbound.size() > 0 && writeScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            } catch (IOException iox) {
+                iox.printStackTrace();
+                disconnect();
+            }
+        }
+
+        private void disconnect() {
+            if (closed.compareAndSet(false, true)) {
+                outbound.close();
+                closeQuietly(channel);
+                backend.connectionClosed(userId);
+            }
+        }
+    }
+
+    /** @return whether the calling thread is one of the event loops */
+    private boolean onEventLoop() {
+        Thread current = Thread.currentThread();
+        for (EventLoop loop : loops) {
+            if (loop.thread == current) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException iox) {
+            iox.printStackTrace();
+        }
+    }
+}
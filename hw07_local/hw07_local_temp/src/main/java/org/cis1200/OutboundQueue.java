@@ -0,0 +1,340 @@
+package org.cis1200;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An {@code OutboundQueue} holds the encoded lines waiting to be written to
+ * one client. The model thread adds lines with {@link #offer(byte[])} and
+ * returns to work immediately; the connection's writer (a thread for the
+ * blocking transports, the event loop for NIO) takes them off and performs
+ * the socket writes.
+ *
+ * Offering a line does not wake the writer; {@link #flush()} does. The
+ * backend flushes each connection once after each batch of tasks, so every
+ * line a client gets from those tasks is normally written in a single batch.
+ *
+ * The queue is bounded. What happens when a client reads too slowly to keep
+ * up is decided by the {@link OverflowPolicy}. A writer that is not woken by
+ * the queue itself, such as an NIO event loop, must be given a hook to run
+ * before {@link OverflowPolicy#BLOCK} waits, or the flush that would wake it
+ * never comes.
+ */
+final class OutboundQueue {
+
+    /**
+     * What to do when a line is offered to a full queue.
+     */
+    enum OverflowPolicy {
+        /** Discard the oldest queued line to make room. */
+        DROP_OLDEST,
+        /** Refuse the line; the caller disconnects the slow client. */
+        DISCONNECT,
+        /** Wait until the writer makes room. This stalls the caller. */
+        BLOCK
+    }
+
+    /**
+     * Counters shared by all the queues of one backend.
+     */
+    static final class Stats {
+        private final AtomicLong queuedLines = new AtomicLong();
+        private final AtomicLong maxDepth = new AtomicLong();
+        private final LongAdder droppedLines = new LongAdder();
+        private final LongAdder slowConsumerDisconnects = new LongAdder();
+        private final LongAdder blockedNanos = new LongAdder();
+        private final LongAdder writes = new LongAdder();
+        private final LongAdder writtenLines = new LongAdder();
+
+        /** @return lines currently queued across all connections */
+        long getQueuedLines() {
+            return queuedLines.get();
+        }
+
+        /** @return the deepest any single queue has been */
+        long getMaxDepth() {
+            return maxDepth.get();
+        }
+
+        /** @return lines discarded by {@link OverflowPolicy#DROP_OLDEST} */
+        long getDroppedLines() {
+            return droppedLines.sum();
+        }
+
+        /** @return clients refused by {@link OverflowPolicy#DISCONNECT} */
+        long getSlowConsumerDisconnects() {
+            return slowConsumerDisconnects.sum();
+        }
+
+        /** @return total time spent waiting in {@link OverflowPolicy#BLOCK} */
+        long getBlockedNanos() {
+            return blockedNanos.sum();
+        }
+
+        /** @return socket writes performed by the connections' writers */
+        long getWrites() {
+            return writes.sum();
+        }
+
+        /** @return lines handed to those writes */
+        long getWrittenLines() {
+            return writtenLines.sum();
+        }
+
+        /**
+         * Called by a writer after each socket write (or flush).
+         *
+         * @param lines the number of lines the write carried
+         */
+        void recordWrite(int lines) {
+            writes.increment();
+            writtenLines.add(lines);
+        }
+
+        private void recordDepth(int depth) {
+            long max;
+            while (depth > (max = maxDepth.get())) {
+                if (maxDepth.compareAndSet(max, depth)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Stats stats;
+    private final Runnable beforeBlocking;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<byte[]> lines = new ArrayDeque<>();
+    private boolean closed = false;
+
+    /**
+     * @param capacity the most lines the queue holds
+     * @param policy   what to do when it is full
+     * @param stats    the counters to update
+     */
+    OutboundQueue(int capacity, OverflowPolicy policy, Stats stats) {
+        this(capacity, policy, stats, null);
+    }
+
+    /**
+     * @param capacity       the most lines the queue holds
+     * @param policy         what to do when it is full
+     * @param stats          the counters to update
+     * @param beforeBlocking run, with the queue locked, each time
+     *                       {@link OverflowPolicy#BLOCK} is about to wait for
+     *                       the writer; null if the writer waits on the queue
+     */
+    OutboundQueue(int capacity, OverflowPolicy policy, Stats stats, Runnable beforeBlocking) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.stats = stats;
+        this.beforeBlocking = beforeBlocking;
+    }
+
+    /**
+     * Adds a line for the writer. Lines offered after {@link #close()} are
+     * silently discarded.
+     *
+     * @param line an encoded line; it is not copied
+     * @return false if the queue is full and the policy is
+     *         {@link OverflowPolicy#DISCONNECT}, true otherwise
+     */
+    boolean offer(byte[] line) {
+        return offer(line, true);
+    }
+
+    /**
+     * Adds a line for the writer, like {@link #offer(byte[])}, unless the
+     * caller may not wait: then {@link OverflowPolicy#BLOCK} refuses the line
+     * as {@link OverflowPolicy#DISCONNECT} does. A thread that the writer
+     * itself depends on, such as the event loop that writes this queue, must
+     * never wait for it.
+     *
+     * @param line    an encoded line; it is not copied
+     * @param mayWait whether {@link OverflowPolicy#BLOCK} may wait for room
+     * @return false if the queue is full and the line was refused, true
+     *         otherwise
+     */
+    boolean offer(byte[] line, boolean mayWait) {
+        lock.lock();
+        try {
+            while (!closed && lines.size() >= capacity) {
+                if (policy == OverflowPolicy.DROP_OLDEST) {
+                    lines.poll();
+                    stats.queuedLines.decrementAndGet();
+                    stats.droppedLines.increment();
+                } else if (policy == OverflowPolicy.DISCONNECT || !mayWait) {
+                    stats.slowConsumerDisconnects.increment();
+                    return false;
+                } else {
+                    // The writer may be waiting for a flush that will not
+                    // come until this dispatch is over
+                    notEmpty.signal();
+                    if (beforeBlocking != null) {
+                        beforeBlocking.run();
+                    }
+                    long start = System.nanoTime();
+                    notFull.awaitUninterruptibly();
+                    stats.blockedNanos.add(System.nanoTime() - start);
+                }
+            }
+            if (closed) {
+                return true;
+            }
+            lines.add(line);
+            stats.queuedLines.incrementAndGet();
+            stats.recordDepth(lines.size());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes the writer if it is waiting for lines.
+     */
+    void flush() {
+        lock.lock();
+        try {
+            if (!lines.isEmpty()) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the oldest line without waiting.
+     *
+     * @return the line, or null if the queue is empty
+     */
+    byte[] poll() {
+        lock.lock();
+        try {
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the oldest line, waiting for one if the queue is empty.
+     *
+     * @return the line, or null once the queue has been closed
+     * @throws InterruptedException if the writer is interrupted while waiting
+     */
+    byte[] take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (lines.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Like {@link #take()}, but gives up after the timeout.
+     *
+     * @param timeout how long to wait
+     * @param unit    the unit of the timeout
+     * @return the line, or null if none arrived in time or the queue is closed
+     * @throws InterruptedException if the writer is interrupted while waiting
+     */
+    byte[] poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (lines.isEmpty() && !closed && nanos > 0) {
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes up to {@code max} lines without waiting, oldest first.
+     *
+     * @param sink where to put the lines
+     * @param max  the most lines to remove
+     * @return the number of lines removed
+     */
+    int drainTo(Collection<byte[]> sink, int max) {
+        lock.lock();
+        try {
+            if (closed) {
+                return 0;
+            }
+            int n = 0;
+            byte[] line;
+            while (n < max && (line = lines.poll()) != null) {
+                sink.add(line);
+                n++;
+            }
+            if (n > 0) {
+                stats.queuedLines.addAndGet(-n);
+                notFull.signalAll();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return the number of lines waiting */
+    int size() {
+        lock.lock();
+        try {
+            return lines.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards every waiting line and releases any blocked caller. Lines
+     * offered afterwards are ignored.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            stats.queuedLines.addAndGet(-lines.size());
+            lines.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] removeFirst() {
+        if (closed) {
+            return null;
+        }
+        byte[] line = lines.poll();
+        if (line != null) {
+            stats.queuedLines.decrementAndGet();
+            notFull.signal();
+        }
+        return line;
+    }
+}
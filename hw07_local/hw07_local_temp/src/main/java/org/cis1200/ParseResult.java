@@ -0,0 +1,63 @@
+package org.cis1200;
+
+/**
+ * A {@code ParseResult} is the outcome of {@link CommandParser#tryParse}:
+ * either the {@link Command} a line represents, or the reason it does not
+ * represent one. Failures are shared constants, so rejecting a malformed
+ * line allocates nothing and builds no exception.
+ */
+public final class ParseResult {
+
+    /** The line is empty or starts with a payload. */
+    static final ParseResult NO_COMMAND_TYPE = failure("No command type");
+
+    /** The line has more than two parameters. */
+    static final ParseResult TOO_MANY_PARAMETERS = failure("Too many parameters");
+
+    /** The first token is not a known command. */
+    static final ParseResult UNKNOWN_COMMAND = failure("Unknown command");
+
+    /** The flag of a CREATE command is neither 0 nor 1. */
+    static final ParseResult BAD_CREATE_FLAG = failure("CREATE flag must be 0 or 1");
+
+    private final Command command;
+    private final String problem;
+
+    private ParseResult(Command command, String problem) {
+        this.command = command;
+        this.problem = problem;
+    }
+
+    static ParseResult of(Command command) {
+        return new ParseResult(command, null);
+    }
+
+    private static ParseResult failure(String problem) {
+        return new ParseResult(null, problem);
+    }
+
+    /** @return whether the line was a command */
+    public boolean isOk() {
+        return command != null;
+    }
+
+    /** @return the parsed command, or null if parsing failed */
+    public Command getCommand() {
+        return command;
+    }
+
+    /** @return the error to report to the sender, or null if parsing succeeded */
+    public ErrorCode getError() {
+        return command == null ? ErrorCode.SYNTAX_ERROR : null;
+    }
+
+    /** @return what was wrong with the line, or null if parsing succeeded */
+    public String getProblem() {
+        return problem;
+    }
+
+    @Override
+    public String toString() {
+        return command != null ? "ParseResult{" + command + "}" : "ParseResult{" + problem + "}";
+    }
+}
@@ -0,0 +1,143 @@
+package org.cis1200;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * A {@code ProfilingWatcher} records the server's own {@link FlightEvents}
+ * in-process, through a JFR event stream, and warns in the server log when
+ * either of these crosses its limit:
+ *
+ * <pre>
+ *   utilization   the part of the last interval a model thread spent on
+ *                 batches of tasks rather than waiting for them
+ *   latency       how long a single command took in the model
+ * </pre>
+ *
+ * The stream hands over events about once a second, and the limits are
+ * checked each time, so a warning covers about the last second. Only
+ * commands over the latency limit are recorded at all, which keeps the
+ * stream cheap enough to leave on; the batches are recorded in full, but
+ * there is at most one for every few tasks under load.
+ *
+ * Events from every {@code ServerBackend} in the JVM are watched alike.
+ */
+final class ProfilingWatcher {
+    private final double maxUtilization;
+    private final long slowCommandNanos;
+    private final AsyncLog log;
+    private final LongAdder warnings = new LongAdder();
+
+    private RecordingStream stream;
+
+    // Touched only by the stream's thread
+    private final Map<Integer, Long> busyNanos = new TreeMap<>();
+    private long intervalStart;
+    private int slowCommands;
+    private long slowestNanos;
+    private String slowest;
+
+    /**
+     * @param maxUtilization   the part of an interval, between 0 and 1, a model
+     *                         thread may be busy before a warning
+     * @param slowCommandNanos how long a command may take before a warning
+     * @param log              where to warn
+     */
+    ProfilingWatcher(double maxUtilization, long slowCommandNanos, AsyncLog log) {
+        if (maxUtilization <= 0 || maxUtilization > 1) {
+            throw new IllegalArgumentException("maxUtilization must be above 0 and at most 1");
+        }
+        if (slowCommandNanos <= 0) {
+            throw new IllegalArgumentException("slowCommandNanos must be positive");
+        }
+        this.maxUtilization = maxUtilization;
+        this.slowCommandNanos = slowCommandNanos;
+        this.log = log;
+    }
+
+    /** Starts recording and watching, on a thread of the stream's own. */
+    void start() {
+        stream = new RecordingStream();
+        stream.enable(FlightEvents.DispatchBatch.class).withoutThreshold();
+        stream.enable(FlightEvents.CommandExecuted.class)
+                .withThreshold(Duration.ofNanos(slowCommandNanos));
+        stream.onEvent("org.cis1200.DispatchBatch", this::batch);
+        stream.onEvent("org.cis1200.CommandExecuted", this::command);
+        stream.onFlush(this::check);
+        intervalStart = System.nanoTime();
+        stream.startAsync();
+    }
+
+    /** Stops recording. */
+    void close() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    /** @return the number of warnings given so far */
+    long getWarnings() {
+        return warnings.sum();
+    }
+
+    private void batch(RecordedEvent event) {
+        busyNanos.merge(event.getInt("shard"), event.getDuration().toNanos(), Long::sum);
+    }
+
+    private void command(RecordedEvent event) {
+        // Another recording may have asked for faster commands as well
+        long nanos = event.getDuration().toNanos();
+        if (nanos < slowCommandNanos) {
+            return;
+        }
+        slowCommands++;
+        if (nanos > slowestNanos) {
+            slowestNanos = nanos;
+            String channel = event.getString("channel");
+            slowest = event.getString("command") + " from user " + event.getInt("sender")
+                    + (channel == null ? "" : " in " + channel);
+        }
+    }
+
+    /*
+     * Runs after each batch of events the stream hands over. A dispatch
+     * batch counts in full towards the interval it ended in.
+     */
+    private void check() {
+        long now = System.nanoTime();
+        long interval = Math.max(1, now - intervalStart);
+        for (Map.Entry<Integer, Long> busy : busyNanos.entrySet()) {
+            double utilization = (double) busy.getValue() / interval;
+            if (utilization > maxUtilization) {
+                warn(String.format(
+                        "Model thread %d busy %d%% of the last %d ms",
+                        busy.getKey(), Math.round(Math.min(1, utilization) * 100),
+                        TimeUnit.NANOSECONDS.toMillis(interval)
+                ));
+            }
+        }
+        if (slowCommands > 0) {
+            warn(String.format(
+                    "%d command(s) took over %d ms in the model; slowest: %s, %d ms",
+                    slowCommands, TimeUnit.NANOSECONDS.toMillis(slowCommandNanos),
+                    slowest, TimeUnit.NANOSECONDS.toMillis(slowestNanos)
+            ));
+        }
+        busyNanos.clear();
+        slowCommands = 0;
+        slowestNanos = 0;
+        slowest = null;
+        intervalStart = now;
+    }
+
+    private void warn(String message) {
+        warnings.increment();
+        log.log(AsyncLog.Category.SERVER, AsyncLog.Level.WARN, "%s\n", message);
+    }
+}
@@ -0,0 +1,321 @@
+package org.cis1200;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@code RateLimiter} holds back clients that send commands faster than the
+ * server is willing to process them. It runs on the thread that read the
+ * command, before the command reaches the model.
+ *
+ * There are two kinds of limit, each a {@link TokenBucket}:
+ * <ul>
+ *   <li>every client may send so many commands per second, and</li>
+ *   <li>every channel accepts so many MESG commands per second, from all of
+ *       its members together ("slow mode"). This bounds the writes a single
+ *       channel can cause, however many members it has.</li>
+ * </ul>
+ * A command over a limit is either rejected, to be answered with
+ * {@link ErrorCode#RATE_LIMITED}, or delayed until the buckets allow it.
+ * A delayed command is run later by the limiter's own thread. A client's
+ * commands always run in the order they were sent, so while one of them is
+ * delayed, the ones after it are delayed as well, even once their own turn
+ * has come, until it has run.
+ *
+ * A MESG that a channel rejects has still used up one of its sender's
+ * tokens.
+ */
+final class RateLimiter {
+
+    /**
+     * What happens to a command over a limit.
+     */
+    enum Policy {
+        /** Answer it with an error and drop it. */
+        REJECT,
+        /** Hold it back until the limits allow it, up to a maximum delay. */
+        DELAY
+    }
+
+    /** Returned by {@link #admit} for a command that must be rejected. */
+    static final long REJECTED = -1;
+
+    // Channel buckets are only forgotten once there are this many
+    private static final int MIN_CHANNELS_KEPT = 4096;
+
+    private final double userRate;
+    private final int userBurst;
+    private final double channelRate;
+    private final int channelBurst;
+    private final Policy policy;
+    private final long maxDelay;
+
+    private final Map<Integer, UserLimit> users = new ConcurrentHashMap<>();
+    private final Map<String, ChannelLimit> channels = new ConcurrentHashMap<>();
+    private volatile int channelsKept = MIN_CHANNELS_KEPT;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+
+    private final DelayQueue<Release> releases = new DelayQueue<>();
+    private final AtomicLong nextRelease = new AtomicLong();
+    private final Thread releaser;
+
+    /**
+     * One client's bucket (null without a client limit), throttle count and
+     * delayed commands.
+     */
+    private static final class UserLimit {
+        final TokenBucket bucket;
+        final AtomicLong throttled = new AtomicLong();
+        final AtomicInteger pending = new AtomicInteger(); // delayed, not yet run
+        long notBefore; // when the client's last delayed command runs; its reader only
+
+        UserLimit(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /** One channel's bucket and throttle count. */
+    private static final class ChannelLimit {
+        final TokenBucket bucket;
+        final AtomicLong throttled = new AtomicLong();
+
+        ChannelLimit(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /** A delayed command, due at a {@link System#nanoTime()} value. */
+    private static final class Release implements Delayed {
+        final long due;
+        final long sequence; // breaks ties, so equal times keep their order
+        final UserLimit user; // null once the client has been forgotten
+        final Runnable action;
+
+        Release(long due, long sequence, UserLimit user, Runnable action) {
+            this.due = due;
+            this.sequence = sequence;
+            this.user = user;
+            this.action = action;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Release that = (Release) other;
+            int byDue = Long.compare(due - that.due, 0);
+            return byDue != 0 ? byDue : Long.compare(sequence, that.sequence);
+        }
+    }
+
+    /**
+     * @param userRate     commands per second per client, or 0 for no limit
+     * @param userBurst    commands a client may send at once
+     * @param channelRate  messages per second per channel, or 0 for no limit
+     * @param channelBurst messages a channel accepts at once
+     * @param policy       what to do with a command over a limit
+     * @param maxDelay     under {@link Policy#DELAY}, the longest a command
+     *                     may be held back before it is rejected instead,
+     *                     in nanoseconds
+     */
+    RateLimiter(double userRate, int userBurst, double channelRate, int channelBurst,
+                Policy policy, long maxDelay) {
+        this.userRate = userRate;
+        this.userBurst = userBurst;
+        this.channelRate = channelRate;
+        this.channelBurst = channelBurst;
+        this.policy = policy;
+        this.maxDelay = policy == Policy.DELAY ? maxDelay : 0;
+        this.releaser = new Thread(this::releaseLoop, "Rate limiter");
+        this.releaser.setDaemon(true);
+    }
+
+    /** Starts the thread that runs delayed commands. */
+    void start() {
+        releaser.start();
+    }
+
+    /** Stops the thread that runs delayed commands; those still waiting are dropped. */
+    void close() {
+        releaser.interrupt();
+    }
+
+    /**
+     * Checks a command against the limits, taking its tokens if it is
+     * allowed. Must be called on the thread that reads the sender's commands,
+     * in the order they arrive.
+     *
+     * @param command a command that passed {@link Command#validate()}
+     * @param now     the current {@link System#nanoTime()}
+     * @return 0 to run the command now, a delay in nanoseconds after which
+     *         to run it with {@link #runLater}, which must then be called, or
+     *         {@link #REJECTED}
+     */
+    long admit(Command command, long now) {
+        long wait = 0;
+        UserLimit user = users.computeIfAbsent(
+                command.getSenderId(),
+                id -> new UserLimit(
+                        userRate > 0 ? new TokenBucket(userRate, userBurst, now) : null)
+        );
+        if (user.bucket != null) {
+            wait = take(user.bucket, now);
+            if (wait < 0) {
+                user.throttled.incrementAndGet();
+                rejected.increment();
+                return REJECTED;
+            }
+        }
+        String channel = command.getChannel();
+        if (channelRate > 0 && channel != null && command instanceof MessageCommand) {
+            ChannelLimit limit = channels.get(channel);
+            if (limit == null) {
+                forgetIdleChannels(now);
+                limit = channels.computeIfAbsent(
+                        channel,
+                        name -> new ChannelLimit(new TokenBucket(channelRate, channelBurst, now))
+                );
+            }
+            long channelWait = take(limit.bucket, now);
+            if (channelWait != 0) {
+                limit.throttled.incrementAndGet();
+            }
+            if (channelWait < 0) {
+                user.throttled.incrementAndGet();
+                rejected.increment();
+                return REJECTED;
+            }
+            wait = Math.max(wait, channelWait);
+        }
+        // Never overtake the sender's commands that are still held back, even
+        // those already due that the limiter's thread has yet to run
+        if (user.pending.get() > 0) {
+            wait = Math.max(wait, Math.max(user.notBefore - now, 1));
+        }
+        if (wait > 0) {
+            user.throttled.incrementAndGet();
+            user.pending.incrementAndGet();
+            user.notBefore = now + wait;
+            delayed.increment();
+        }
+        return wait;
+    }
+
+    private long take(TokenBucket bucket, long now) {
+        if (policy == Policy.REJECT) {
+            return bucket.tryAcquire(now) ? 0 : REJECTED;
+        }
+        return bucket.reserve(now, maxDelay);
+    }
+
+    /*
+     * Channel names come from clients, so buckets for channels nobody has
+     * used lately are dropped before the map can grow without bound.
+     */
+    private void forgetIdleChannels(long now) {
+        if (channels.size() < channelsKept) {
+            return;
+        }
+        channels.values().removeIf(limit -> limit.bucket.isFull(now));
+        channelsKept = Math.max(MIN_CHANNELS_KEPT, 2 * channels.size());
+    }
+
+    /**
+     * Runs an action on the limiter's thread once a delay from
+     * {@link #admit} has passed. Actions due at the same time run in the
+     * order they were scheduled. Until it has run, the client's later
+     * commands are delayed behind it.
+     *
+     * @param userId the client whose command was delayed
+     * @param due    the {@link System#nanoTime()} at which to run it
+     * @param action the action
+     */
+    void runLater(int userId, long due, Runnable action) {
+        releases.add(new Release(due, nextRelease.getAndIncrement(), users.get(userId), action));
+    }
+
+    private void releaseLoop() {
+        while (true) {
+            Release release;
+            try {
+                release = releases.take();
+            } catch (InterruptedException ix) {
+                return;
+            }
+            try {
+                release.action.run();
+            } catch (RuntimeException rx) {
+                rx.printStackTrace();
+            } finally {
+                if (release.user != null) {
+                    release.user.pending.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets a client that disconnected.
+     *
+     * @param userId the client
+     */
+    void forget(int userId) {
+        users.remove(userId);
+    }
+
+    // ==========================================================================
+    // Counters
+    // ==========================================================================
+
+    /** @return the number of commands rejected so far */
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    /** @return the number of commands delayed so far */
+    long getDelayed() {
+        return delayed.sum();
+    }
+
+    /**
+     * @return for each connected client that has been throttled, how many
+     *         of its commands were rejected or delayed
+     */
+    Map<Integer, Long> getThrottledUsers() {
+        Map<Integer, Long> throttled = new TreeMap<>();
+        users.forEach((id, user) -> {
+            long count = user.throttled.get();
+            if (count > 0) {
+                throttled.put(id, count);
+            }
+        });
+        return throttled;
+    }
+
+    /**
+     * @return for each recently active channel that has been throttled, how
+     *         many messages to it were rejected or delayed
+     */
+    Map<String, Long> getThrottledChannels() {
+        Map<String, Long> throttled = new TreeMap<>();
+        channels.forEach((name, channel) -> {
+            long count = channel.throttled.get();
+            if (count > 0) {
+                throttled.put(name, count);
+            }
+        });
+        return throttled;
+    }
+}
@@ -72,13 +72,20 @@ public final class Response implements Comparable<Response> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(recipientId, text);
+        return 31 * recipientId + text.hashCode();
     }
 
     // ==============================================================================
     // Factory methods
     // ==============================================================================
 
+    /*
+     * Used by Broadcast to expand itself into one Response per recipient.
+     */
+    static Response withText(Integer recipientId, String text) {
+        return new Response(recipientId, text);
+    }
+
     /**
      * A {@code Response} for the case when a user first connects to the
      * server and should be informed of their new nickname
@@ -130,8 +137,20 @@ public final class Response implements Comparable<Response> {
      * @return ERROR response
      */
     public static Response error(Command command, ErrorCode errorCode) {
+        return error(command.getSenderId(), errorCode);
+    }
+
+    /**
+     * Constructs an error {@code Response} for a client whose request could
+     * not even be parsed into a {@link Command}.
+     *
+     * @param recipientId the userId of the client that sent the request
+     * @param errorCode   the error that occurred
+     * @return error response for that client
+     */
+    public static Response error(int recipientId, ErrorCode errorCode) {
         return new Response(
-                command.getSenderId(),
+                recipientId,
                 String.format(":%s ERROR %d", "$server", errorCode.getCode())
         );
     }
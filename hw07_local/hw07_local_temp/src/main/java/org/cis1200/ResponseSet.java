@@ -10,20 +10,45 @@ import java.util.*;
  * events in their channels. For instance, many chat services
  * inform you when someone has been removed from a chat that you're in.
  *
+ * Messages are kept in a plain array in the order they were added, which is
+ * also the order the backend sends them in. Adding is O(1). The sorted,
+ * duplicate-free view used to compare two sets is only built when it is
+ * asked for, which in practice means in tests.
+ *
  * You do not need to modify this file, but you will need to read and understand
  * how it works to complete the assignment.
  */
 public final class ResponseSet {
 
-    private final Set<Response> responses = new TreeSet<>();
+    // Everything to send, in the order it was added; a single response is
+    // a broadcast with one recipient
+    private Broadcast[] outgoing = new Broadcast[4];
+    private int size = 0;
+
+    // The canonical (sorted, duplicate-free) form, built on demand
+    private Set<Response> canonical = null;
 
     /**
-     * Add a response to the set
+     * Add a response to the set. Every response added is sent, so a response
+     * must not be added twice; the model never does. Duplicates are only
+     * removed from the canonical form used by {@link #getResponses()} and
+     * {@link #equals(Object)}.
      *
      * @param response The response to send
      */
-    public boolean addMessage(Response response) {
-        return responses.add(response);
+    public void addMessage(Response response) {
+        append(Broadcast.of(response));
+    }
+
+    /**
+     * Add a message for many recipients to the set. This is equivalent to
+     * adding each of {@link Broadcast#toResponses()}, but the message is only
+     * built and encoded once.
+     *
+     * @param broadcast The broadcast to send
+     */
+    public void addBroadcast(Broadcast broadcast) {
+        append(broadcast);
     }
 
     // ==========================================================================
@@ -32,7 +57,7 @@ public final class ResponseSet {
 
     /**
      * Convenience method for creating an empty response set.
-     * 
+     *
      * @return an empty response set
      */
     public static ResponseSet empty() {
@@ -56,25 +81,59 @@ public final class ResponseSet {
     // ==========================================================================
 
     /**
-     * You should not call this method yourself. Associates the stored responses
-     * with the userIds
-     * of the recipients. This * function will be called by the
-     * {@link ServerBackend} before
-     * dispatching the {@code ResponseSet}.
+     * Gets every response in the set, sorted by recipient and then by text,
+     * with duplicates removed. This is built on demand, so it is meant for
+     * testing rather than for sending.
      *
-     * @return a mapping from userId to a list of response strings that should be
-     *         delivered by the
-     *         {@link ServerBackend}
+     * @return an unmodifiable, sorted set of all the responses
      */
-
     public Set<Response> getResponses() {
-        return responses;
+        if (canonical == null) {
+            Set<Response> all = new TreeSet<>();
+            for (int i = 0; i < size; i++) {
+                all.addAll(outgoing[i].toResponses());
+            }
+            canonical = Collections.unmodifiableSet(all);
+        }
+        return canonical;
+    }
+
+    /**
+     * You should not call this method yourself. The {@link ServerBackend}
+     * sends messages 0 to {@code getOutgoingCount() - 1} in that order, which
+     * keeps, for example, a JOIN ahead of the NAMES that follows it.
+     *
+     * @return the number of messages to send
+     */
+    int getOutgoingCount() {
+        return size;
+    }
+
+    /**
+     * You should not call this method yourself.
+     *
+     * @param index position of the message, in the order it was added
+     * @return the message, single responses as one-recipient broadcasts
+     */
+    Broadcast getOutgoing(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return outgoing[index];
     }
 
     // ==========================================================================
     // Private utility methods
     // ==========================================================================
 
+    private void append(Broadcast broadcast) {
+        if (size == outgoing.length) {
+            outgoing = Arrays.copyOf(outgoing, size * 2);
+        }
+        outgoing[size++] = broadcast;
+        canonical = null;
+    }
+
     // ==========================================================================
     // Overrides from Object
     // ==========================================================================
@@ -87,17 +146,17 @@ public final class ResponseSet {
         if (o == null || o.getClass() != ResponseSet.class) {
             return false;
         }
-        return this.responses.equals(((ResponseSet) o).responses);
+        return this.getResponses().equals(((ResponseSet) o).getResponses());
     }
 
     @Override
     public int hashCode() {
-        return responses.hashCode();
+        return getResponses().hashCode();
     }
 
     @Override
     public String toString() {
-        return responses.toString();
+        return getResponses().toString();
     }
 
 }
@@ -0,0 +1,131 @@
+package org.cis1200;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded {@link TaskQueue} on a preallocated ring of slots, for many
+ * producers and a single consumer. Adding a task allocates nothing and
+ * takes no lock: a producer claims a sequence number with one atomic
+ * increment, waits (rarely) for its slot to be free, and publishes the task
+ * by advancing the slot's sequence. The consumer takes every published task
+ * in order until it reaches one that is not.
+ *
+ * Each slot's sequence tells both sides where it stands. Slot {@code i}
+ * starts at {@code i}; it holds a task for sequence {@code s} when it reads
+ * {@code s + 1}, and is free for sequence {@code s + capacity} once the
+ * consumer has set it to that value.
+ *
+ * @param <T> the type of the tasks
+ */
+final class RingTaskQueue<T> implements TaskQueue<T> {
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    private final AtomicLong tail = new AtomicLong(); // next sequence to claim
+    private volatile long head = 0;                   // next sequence to take
+
+    // For WaitStrategy.BLOCK: producers unpark the consumer when it is parked
+    private volatile Thread consumer = null;
+    private volatile boolean consumerParked = false;
+
+    /**
+     * @param capacity     the number of slots, rounded up to a power of two
+     * @param waitStrategy how the consumer waits for tasks and producers for
+     *                     room
+     */
+    RingTaskQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /** @return the number of slots */
+    int capacity() {
+        return buffer.length;
+    }
+
+    @Override
+    public void add(T task) {
+        long sequence = tail.getAndIncrement();
+        int index = (int) sequence & mask;
+        for (int attempt = 0; sequences.get(index) != sequence; attempt++) {
+            // The ring is full; wait for the consumer to free the slot
+            waitStrategy.idle(attempt);
+        }
+        buffer[index] = task;
+        sequences.set(index, sequence + 1);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int take(Collection<? super T> batch, int max) throws InterruptedException {
+        long next = head;
+        int index = (int) next & mask;
+        if (sequences.get(index) != next + 1) {
+            await(index, next + 1);
+        }
+        int taken = 0;
+        while (taken < max && sequences.get(index) == next + 1) {
+            batch.add((T) buffer[index]);
+            buffer[index] = null;
+            sequences.set(index, next + buffer.length);
+            next++;
+            taken++;
+            index = (int) next & mask;
+        }
+        head = next;
+        return taken;
+    }
+
+    @Override
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, buffer.length));
+    }
+
+    private void await(int index, long published) throws InterruptedException {
+        if (waitStrategy == WaitStrategy.BLOCK) {
+            consumer = Thread.currentThread();
+            consumerParked = true;
+            try {
+                // A producer publishes, then checks consumerParked; this
+                // thread sets consumerParked, then checks the slot. One of
+                // the two always sees the other, so no wakeup is lost.
+                while (sequences.get(index) != published) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    LockSupport.park(this);
+                }
+            } finally {
+                consumerParked = false;
+            }
+        } else {
+            for (int attempt = 0; sequences.get(index) != published; attempt++) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                waitStrategy.idle(attempt);
+            }
+        }
+    }
+}
@@ -1,50 +1,219 @@
 package org.cis1200;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.FlightRecorder;
 
 /**
  * The {@code ServerBackend} handles networking and communication with clients,
  * and is responsible for managing the server state and executing tasks. To
  * run the server, you should see the {@link ServerMain} class.
  *
+ * Clients are served by one of the transports in {@link ServerConfig.Transport}.
+ * Whichever transport is used, it reports new connections, received lines and
+ * disconnections to the backend, which turns them into tasks for the
+ * model thread.
+ *
+ * With {@code shards} greater than one there are several model threads.
+ * A command about a channel runs on the shard its channel hashes to, so
+ * commands about one channel keep their order while commands about
+ * different channels run in parallel. Everything else (registration, NICK,
+ * disconnection) is a {@link Barrier}: it runs once every shard has caught
+ * up to it, while all the others wait.
+ *
+ * With {@code execution=inline} there is no queue at all: the thread that
+ * reads a command runs it through a {@link StripedModel}, which locks just
+ * the channels and users the command touches.
+ *
+ * Responses are never written by the model thread itself. Each connection
+ * has a bounded {@link OutboundQueue} that the model thread appends to and a
+ * writer (a thread of its own, or the NIO event loop) that drains it, so a
+ * client that stops reading cannot hold up everyone else. Requests and
+ * responses are logged through an {@link AsyncLog} for the same reason.
+ *
+ * Every stage a command passes through is measured in a {@link Metrics}
+ * registry: bytes and lines in, time queued, time in the model for each
+ * kind of command, the number of lines each produced, the time taken to
+ * hand them to the outbound queues and to write them out. With
+ * {@code metricsPort} set they are served as text on localhost. With
+ * {@code traceSample} set, a {@link Tracer} also follows a sample of single
+ * commands through those stages. The model threads' work is also
+ * reported as {@link FlightEvents} to any Flight Recorder recording, and
+ * with {@code profiling} on a {@link ProfilingWatcher} warns when it gets
+ * too slow.
+ *
  * You do not need to modify this file.
  */
 final class ServerBackend implements Runnable {
 
-    // The ServerModel is NOT thread-safe; it should only be touched by the
-    // model thread after being initialized.
+    private static final int WRITE_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_WRITE_BATCH = 64;
+
+    // The ServerModel is NOT thread-safe; after being initialized it should
+    // only be touched by the model threads, as ModelShard allows, or through
+    // the StripedModel.
     private final ServerModel model;
+    private final ServerConfig config;
 
-    private final BlockingQueue<Task> taskQueue;
+    private final ModelShard[] shards;
+    private final StripedModel stripedModel; // null unless commands run inline
+    private final RateLimiter rateLimiter;   // null without rate limits
+    private final AdmissionController admission; // null without overload limits
+    private final Tracer tracer;             // null unless tracing
+    private final ProfilingWatcher watcher;  // null unless profiling
+    private final Runnable backlogSampler = this::sampleBacklog;
+    private final Object barrierLock = new Object(); // orders barriers on all shards
+    private final AtomicInteger liveShards;
 
     private volatile ServerSocket serverSocket;
-    private final Map<Integer, Socket> openSockets;
+    private volatile NioTransport nioTransport;
+    private final Map<Integer, ClientConnection> openConnections;
+    private final AtomicInteger nextId;
+    private final OutboundQueue.Stats outboundStats;
+    private final AsyncLog log;
+
+    // Metrics updated for every line, looked up once
+    private final Metrics metrics;
+    private final LongAdder linesReceived;
+    private final LongAdder bytesReceived;
+    private final LongAdder bytesSent;
+    private final Histogram queueWait;
+    private final Histogram fanout;
+    private final Histogram dispatchTime;
+    private final Histogram writeTime;
+    private final ClassValue<Histogram> executionTimes;
 
     private volatile boolean running;
-    private volatile Thread modelThread;
 
     /**
-     * Create the backend
+     * Create the backend with the default configuration
      * 
      * @param model the state of the server
      */
     public ServerBackend(ServerModel model) {
-        if (model == null) {
+        this(model, ServerConfig.defaults());
+    }
+
+    /**
+     * Create the backend
+     *
+     * @param model  the state of the server
+     * @param config the startup options, such as the port and transport
+     */
+    ServerBackend(ServerModel model, ServerConfig config) {
+        if (model == null || config == null) {
             throw new NullPointerException();
         }
         this.model = model;
-        taskQueue = new LinkedBlockingQueue<>();
+        this.config = config;
+        shards = new ModelShard[config.getShards()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new ModelShard(i);
+        }
+        liveShards = new AtomicInteger();
+        stripedModel = config.getExecution() == ServerConfig.Execution.INLINE
+                ? new StripedModel(model, config.getLockStripes())
+                : null;
+        rateLimiter = config.newRateLimiter();
         serverSocket = null;
-        openSockets = Collections.synchronizedMap(new HashMap<>());
+        nioTransport = null;
+        openConnections = new ConcurrentHashMap<>();
+        nextId = new AtomicInteger();
+        outboundStats = new OutboundQueue.Stats();
+        log = new AsyncLog(System.out, config.getLogBuffer());
+        for (AsyncLog.Category category : AsyncLog.Category.values()) {
+            log.setLevel(category, config.getLogLevel(category));
+            log.setSampling(category, config.getLogSampling(category));
+        }
+        admission = config.newAdmissionController(log);
+        tracer = config.newTracer();
+        watcher = config.newProfilingWatcher(log);
+        metrics = new Metrics();
+        linesReceived = metrics.counter("lines_received_total");
+        bytesReceived = metrics.counter("bytes_received_total");
+        bytesSent = metrics.counter("bytes_sent_total");
+        queueWait = metrics.histogram("task_queue_wait_nanos");
+        fanout = metrics.histogram("response_fanout");
+        dispatchTime = metrics.histogram("dispatch_nanos");
+        writeTime = metrics.histogram("socket_write_nanos");
+        executionTimes = new ClassValue<>() {
+            @Override
+            protected Histogram computeValue(Class<?> type) {
+                return metrics.histogram(Metrics.withLabel(
+                        "command_execution_nanos", "command=\"" + type.getSimpleName() + "\""));
+            }
+        };
+        registerGauges();
         running = false;
-        modelThread = null;
+    }
+
+    /*
+     * Gauges read values that are kept anyway, only when metrics are read.
+     */
+    private void registerGauges() {
+        metrics.gauge("connections_open", openConnections::size);
+        metrics.gauge("connections_accepted_total", nextId::get);
+        metrics.gauge("model_users", model::countUsers);
+        metrics.gauge("model_channels", model::countChannels);
+        for (ModelShard shard : shards) {
+            metrics.gauge(
+                    Metrics.withLabel("task_queue_depth", "shard=\"" + shard.index + "\""),
+                    shard.queue::size
+            );
+        }
+        metrics.gauge("outbound_queued_lines", outboundStats::getQueuedLines);
+        metrics.gauge("outbound_queue_max_depth", outboundStats::getMaxDepth);
+        metrics.gauge("outbound_dropped_lines_total", outboundStats::getDroppedLines);
+        metrics.gauge("outbound_blocked_nanos_total", outboundStats::getBlockedNanos);
+        metrics.gauge("slow_consumer_disconnects_total", outboundStats::getSlowConsumerDisconnects);
+        metrics.gauge("socket_writes_total", outboundStats::getWrites);
+        metrics.gauge("socket_written_lines_total", outboundStats::getWrittenLines);
+        metrics.gauge("log_dropped_lines_total", log::getDroppedLines);
+        if (rateLimiter != null) {
+            metrics.gauge("rate_limit_rejected_total", rateLimiter::getRejected);
+            metrics.gauge("rate_limit_delayed_total", rateLimiter::getDelayed);
+            metrics.gaugeFamily(
+                    "rate_limit_user_throttled_total", "user", rateLimiter::getThrottledUsers);
+            metrics.gaugeFamily(
+                    "rate_limit_channel_throttled_total", "channel",
+                    rateLimiter::getThrottledChannels);
+        }
+        if (admission != null) {
+            metrics.gauge("admission_queued", admission::getDepth);
+            metrics.gauge("admission_queued_max", admission::getMaxDepth);
+            metrics.gauge("admission_last_wait_nanos", admission::getLastWaitNanos);
+            metrics.gauge("admission_shedding", () -> admission.isShedding() ? 1 : 0);
+            metrics.gauge("admission_shedding_episodes_total", admission::getSheddingEpisodes);
+            metrics.gauge("admission_shed_total", admission::getShed);
+            metrics.gauge("admission_expired_total", admission::getExpired);
+        }
+    }
+
+    /*
+     * Called by the Flight Recorder once a period while QueueBacklog events
+     * are recorded.
+     */
+    private void sampleBacklog() {
+        for (ModelShard shard : shards) {
+            FlightEvents.QueueBacklog event = new FlightEvents.QueueBacklog();
+            event.shard = shard.index;
+            event.depth = shard.queue.size();
+            event.outboundLines = outboundStats.getQueuedLines();
+            event.commit();
+        }
     }
 
     /** @return whether the server is processing messages */
@@ -52,128 +221,693 @@ final class ServerBackend implements Runnable {
         return running;
     }
 
+    /**
+     * @return the port the server is listening on, or -1 if it is not
+     *         listening yet
+     */
+    int getLocalPort() {
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            return socket.getLocalPort();
+        }
+        NioTransport transport = nioTransport;
+        return transport != null ? transport.getLocalPort() : -1;
+    }
+
+    /** @return the counters of the outbound queues of all connections */
+    OutboundQueue.Stats getOutboundStats() {
+        return outboundStats;
+    }
+
+    /** @return an empty outbound queue configured for one new connection */
+    OutboundQueue newOutboundQueue() {
+        return newOutboundQueue(null);
+    }
+
+    /**
+     * @param beforeBlocking wakes the connection's writer before
+     *                       {@code overflow=block} waits for it
+     * @return an empty outbound queue configured for one new connection
+     */
+    OutboundQueue newOutboundQueue(Runnable beforeBlocking) {
+        return new OutboundQueue(
+                config.getOutboundCapacity(), config.getOverflow(), outboundStats, beforeBlocking
+        );
+    }
+
+    /** @return the rate limiter, or null if no limits are configured */
+    RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /** @return the admission controller, or null if no overload limits are configured */
+    AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /** @return the log for requests, responses and server events */
+    AsyncLog getLog() {
+        return log;
+    }
+
+    /** @return the tracer, or null if tracing is off */
+    Tracer getTracer() {
+        return tracer;
+    }
+
+    /** @return the server's metrics */
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Counts bytes read from a client. Called by the transports.
+     *
+     * @param bytes the number of bytes
+     */
+    void bytesReceived(int bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    /**
+     * Records a write to a client's socket. Called by the transports.
+     *
+     * @param bytes the number of bytes written
+     * @param nanos how long the write took
+     */
+    void bytesWritten(long bytes, long nanos) {
+        bytesSent.add(bytes);
+        writeTime.record(nanos);
+    }
+
+    /**
+     * Reports a line that has been written to a client's socket in full, in
+     * case it is being traced. Called by the transports.
+     *
+     * @param line      the line, as it was queued
+     * @param userId    the client
+     * @param writtenAt when the write finished
+     */
+    void lineWritten(byte[] line, int userId, long writtenAt) {
+        if (tracer != null && tracer.isWatching()) {
+            tracer.written(line, userId, writtenAt);
+        }
+    }
+
     @Override
     public void run() {
         running = true;
+        log.start();
+        if (tracer != null) {
+            try {
+                tracer.start();
+            } catch (IOException iox) {
+                // The server is still useful without its traces
+                iox.printStackTrace();
+            }
+        }
+        if (rateLimiter != null) {
+            rateLimiter.start();
+        }
+        FlightRecorder.addPeriodicEvent(FlightEvents.QueueBacklog.class, backlogSampler);
+        if (watcher != null) {
+            watcher.start();
+        }
 
-        // Attempt to open the ServerSocket; abort on failure
+        // Attempt to open the listening socket; abort on failure
+        ExecutorService workerPool = null;
         try {
-            serverSocket = new ServerSocket(21212);
-        } catch (IOException iox) {
-            iox.printStackTrace();
+            if (config.getTransport() == ServerConfig.Transport.VIRTUAL) {
+                workerPool = newVirtualThreadPerTaskExecutor();
+            }
+            if (config.getTransport() == ServerConfig.Transport.NIO) {
+                nioTransport = new NioTransport(
+                        this, config.getPort(), config.getEventLoops(),
+                        config.getWriteLingerMicros()
+                );
+            } else {
+                serverSocket = new ServerSocket(config.getPort());
+            }
+        } catch (IOException | UnsupportedOperationException x) {
+            x.printStackTrace();
             running = false;
-            serverSocket = null;
         }
 
-        // Start the model thread
-        modelThread = new Thread(() -> {
-            while (running || !taskQueue.isEmpty()) {
-                Task task;
-                try {
-                    task = taskQueue.take();
-                } catch (InterruptedException ix) {
-                    continue;
-                }
-                try {
-                    dispatchMessages(task.doTask());
-                } catch (RuntimeException rx) {
-                    rx.printStackTrace();
-                }
-            }
-
+        if (running && config.getMetricsPort() >= 0) {
             try {
-                if (serverSocket != null && !serverSocket.isClosed()) {
-                    serverSocket.close();
-                }
+                metrics.serve(config.getMetricsPort());
             } catch (IOException iox) {
+                // The server is still useful without its metrics page
                 iox.printStackTrace();
             }
-        }, "Model thread");
-        modelThread.start();
+        }
+
+        // Start the model threads
+        liveShards.set(shards.length);
+        for (ModelShard shard : shards) {
+            shard.start();
+        }
 
         // Await new connections on the current thread
-        ExecutorService workerPool = Executors.newCachedThreadPool();
         try {
-            int nextId = 0;
-            while (running && !serverSocket.isClosed()) {
-                int userId = nextId++;
-                Socket clientSocket = serverSocket.accept();
-                openSockets.put(userId, clientSocket);
-                taskQueue.add(new Registration(userId));
-                workerPool.execute(new ConnectionWorker(userId, clientSocket));
+            if (nioTransport != null) {
+                nioTransport.serve();
+            } else if (serverSocket != null && workerPool != null) {
+                // The accept loop itself runs on a virtual thread as well
+                ExecutorService virtualThreads = workerPool;
+                Future<?> acceptor = virtualThreads.submit(() -> {
+                    acceptBlocking(virtualThreads);
+                    return null;
+                });
+                awaitAcceptor(acceptor);
+            } else if (serverSocket != null) {
+                acceptBlocking(Executors.newCachedThreadPool());
             }
         } catch (IOException iox) {
-            iox.printStackTrace();
+            if (running) {
+                iox.printStackTrace();
+            }
         } finally {
             running = false;
+            closeListener();
+            Iterator<ClientConnection> iterator = openConnections.values().iterator();
+            while (iterator.hasNext()) {
+                iterator.next().close();
+                iterator.remove();
+            }
+        }
+    }
+
+    /** Ends the execution of the server */
+    public void stop() {
+        running = false;
+        closeListener();
+        for (ModelShard shard : shards) {
+            shard.interrupt();
+        }
+    }
+
+    private void acceptBlocking(ExecutorService workerPool) throws IOException {
+        try {
+            while (running && !serverSocket.isClosed()) {
+                Socket clientSocket = serverSocket.accept();
+                SocketConnection connection = new SocketConnection(clientSocket);
+                connection.userId = connectionOpened(connection);
+                workerPool.execute(connection::drain);
+                workerPool.execute(new ConnectionWorker(connection));
+            }
+        } finally {
             workerPool.shutdown();
+        }
+    }
+
+    private static void awaitAcceptor(Future<?> acceptor) throws IOException {
+        while (true) {
             try {
-                if (serverSocket != null && !serverSocket.isClosed()) {
-                    serverSocket.close();
+                acceptor.get();
+                return;
+            } catch (InterruptedException ix) {
+                // keep waiting; the acceptor ends when the socket is closed
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException iox) {
+                    throw iox;
                 }
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Looks up {@code Executors.newVirtualThreadPerTaskExecutor()} at run time,
+     * so the server still compiles for and runs on Java 17.
+     *
+     * @return an executor that starts a new virtual thread for each task
+     * @throws UnsupportedOperationException if the JVM has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException
+                | InvocationTargetException x) {
+            throw new UnsupportedOperationException(
+                    "transport=virtual requires Java 21 or newer", x
+            );
+        }
+    }
+
+    private void closeListener() {
+        ServerSocket socket = serverSocket;
+        if (socket != null && !socket.isClosed()) {
+            try {
+                socket.close();
             } catch (IOException iox) {
                 iox.printStackTrace();
-            } finally {
-                serverSocket = null;
-            }
-
-            synchronized (openSockets) {
-                Iterator<Socket> iterator = openSockets.values().iterator();
-                while (iterator.hasNext()) {
-                    Socket clientSocket = iterator.next();
-                    try {
-                        clientSocket.close();
-                    } catch (IOException iox) {
-                        iox.printStackTrace();
-                    } finally {
-                        iterator.remove();
+            }
+        }
+        NioTransport transport = nioTransport;
+        if (transport != null) {
+            transport.close();
+        }
+        metrics.stopServing();
+    }
+
+    // ==========================================================================
+    // Connection events, reported by the transports
+    // ==========================================================================
+
+    /**
+     * Records a newly accepted client and queues its registration.
+     *
+     * @param connection the new client
+     * @return the userId assigned to the client
+     */
+    int connectionOpened(ClientConnection connection) {
+        int userId = nextId.getAndIncrement();
+        openConnections.put(userId, connection);
+        if (stripedModel != null) {
+            stripedModel.register(userId, this::dispatchNow);
+        } else {
+            submit(new Registration(userId));
+        }
+        return userId;
+    }
+
+    /**
+     * Reports a client whose outbound queue overflowed under
+     * {@link OutboundQueue.OverflowPolicy#DISCONNECT}. The connection closes
+     * itself and then reports {@link #connectionClosed(int)} as usual.
+     *
+     * @param userId the client being disconnected
+     */
+    void slowConsumer(int userId) {
+        FlightEvents.SlowConsumer event = new FlightEvents.SlowConsumer();
+        if (event.shouldCommit()) {
+            event.userId = userId;
+            event.capacity = config.getOutboundCapacity();
+            event.commit();
+        }
+        log.log(
+                AsyncLog.Category.SERVER, AsyncLog.Level.WARN,
+                "Disconnecting user %d: outbound queue full\n", userId
+        );
+    }
+
+    /**
+     * Parses and checks a line of input received from a client, and queues
+     * the resulting command for the model thread. This runs on the thread
+     * that read the line, so the model thread only ever sees well-formed
+     * commands. A line that cannot be parsed, or a command that fails
+     * {@link Command#validate()}, is answered with an error right here, as
+     * is a command over the {@link RateLimiter}'s limits.
+     * None of this throws, however hostile the input.
+     *
+     * @param userId the client that sent the line
+     * @param line   the line, without its terminator
+     */
+    void lineReceived(int userId, String line) {
+        Tracer.Trace trace = tracer != null ? tracer.sample(userId, System.nanoTime()) : null;
+        linesReceived.increment();
+        log.log(
+                AsyncLog.Category.REQUEST, AsyncLog.Level.INFO,
+                "Request received from user %d: " +
+                        "\"%s\"\n",
+                userId, line
+        );
+        ParseResult parsed = CommandParser.tryParse(userId, line);
+        if (!parsed.isOk()) {
+            log.log(
+                    AsyncLog.Category.SERVER, AsyncLog.Level.WARN,
+                    "Malformed request from user %d: %s\n",
+                    userId, parsed.getProblem()
+            );
+            reply(userId, parsed.getError());
+            return;
+        }
+        Command command = parsed.getCommand();
+        ErrorCode error = command.validate();
+        if (error != null) {
+            reply(userId, error);
+            return;
+        }
+        if (trace != null) {
+            trace.parsed(command);
+        }
+        if (rateLimiter != null) {
+            long now = System.nanoTime();
+            long wait = rateLimiter.admit(command, now);
+            if (wait == RateLimiter.REJECTED) {
+                log.log(
+                        AsyncLog.Category.SERVER, AsyncLog.Level.DEBUG,
+                        "Rate limited user %d: \"%s\"\n", userId, line
+                );
+                reply(userId, ErrorCode.RATE_LIMITED);
+                return;
+            }
+            if (wait > 0) {
+                rateLimiter.runLater(userId, now + wait, () -> {
+                    // The sender may have disconnected in the meantime
+                    if (openConnections.containsKey(userId)) {
+                        process(command, trace);
                     }
+                });
+                return;
+            }
+        }
+        process(command, trace);
+    }
+
+    /*
+     * Hands a checked command to the model, now or (for a command the rate
+     * limiter delayed) from the limiter's thread. A queued command must
+     * first get past the admission controller.
+     */
+    private void process(Command command, Tracer.Trace trace) {
+        if (stripedModel != null) {
+            // Includes waiting for the locks and sending the responses
+            long start = System.nanoTime();
+            FlightEvents.CommandExecuted event = new FlightEvents.CommandExecuted();
+            event.begin();
+            if (trace == null && !event.isEnabled()) {
+                stripedModel.execute(command, this::dispatchNow);
+            } else {
+                // Only traced or recorded commands pay for the lambda
+                if (trace != null) {
+                    trace.queued(start);
+                    trace.dequeued(start);
                 }
+                int[] lines = new int[1];
+                stripedModel.execute(command, responseSet -> {
+                    if (trace != null) {
+                        trace.modelDone(System.nanoTime());
+                    }
+                    lines[0] = dispatchNow(responseSet, trace);
+                });
+                event.fanout = lines[0];
+            }
+            executionTimes.get(command.getClass()).record(System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.command = command.getClass().getSimpleName();
+                event.channel = command.getChannel();
+                event.sender = command.getSenderId();
+                event.commit();
             }
+        } else if (admission == null || admission.admit(command)) {
+            submit(new Request(command, trace));
+        } else {
+            reply(command.getSenderId(), ErrorCode.SERVER_BUSY);
         }
     }
 
-    /** Ends the execution of the server */
-    public void stop() {
-        running = false;
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            try {
-                serverSocket.close();
-            } catch (IOException iox) {
-                iox.printStackTrace();
+    /*
+     * Sends an error straight to a client from the thread that read its
+     * request. This may overtake responses to earlier commands that are still
+     * queued; an error only ever concerns the request it answers. That thread
+     * must go on reading, so a client too far behind on its errors is
+     * disconnected rather than waited for, even with overflow=block.
+     */
+    private void reply(int userId, ErrorCode error) {
+        String text = Response.error(userId, error).getText();
+        ClientConnection connection =
+                send(userId, text, ClientConnection.encodeLine(text), false);
+        if (connection != null) {
+            connection.flush();
+        }
+    }
+
+    /*
+     * Sends the responses to a command run inline, flushing each recipient
+     * at once since there is no batch to wait for. The StripedModel calls
+     * this with its locks held, so responses about one channel go out in
+     * order.
+     */
+    private void dispatchNow(ResponseSet responseSet) {
+        dispatchNow(responseSet, null);
+    }
+
+    private int dispatchNow(ResponseSet responseSet, Tracer.Trace trace) {
+        long start = System.nanoTime();
+        int lines = 0;
+        if (responseSet != null) {
+            for (int b = 0; b < responseSet.getOutgoingCount(); b++) {
+                Broadcast broadcast = responseSet.getOutgoing(b);
+                byte[] line = broadcast.getEncodedLine();
+                if (trace != null) {
+                    trace.sending(line, broadcast.size());
+                }
+                for (int i = 0; i < broadcast.size(); i++) {
+                    ClientConnection connection =
+                            send(broadcast.getRecipientId(i), broadcast.getText(), line, true);
+                    if (connection != null) {
+                        connection.flush();
+                    } else if (trace != null) {
+                        trace.notSent();
+                    }
+                }
+                lines += broadcast.size();
             }
+            fanout.record(lines);
         }
-        if (modelThread != null) {
-            modelThread.interrupt();
+        long sent = System.nanoTime();
+        dispatchTime.record(sent - start);
+        if (trace != null) {
+            trace.dispatched(sent);
+        }
+        return lines;
+    }
+
+    /**
+     * Forgets a client whose socket was closed and queues its disconnection.
+     *
+     * @param userId the client that disconnected
+     */
+    void connectionClosed(int userId) {
+        openConnections.remove(userId);
+        if (rateLimiter != null) {
+            rateLimiter.forget(userId);
+        }
+        if (admission != null) {
+            admission.forget(userId);
+        }
+        if (stripedModel != null) {
+            stripedModel.deregister(userId, this::dispatchNow);
+        } else {
+            submit(new Disconnection(userId));
         }
     }
 
     // ==========================================================================
-    // ResponseSet dispatch
+    // Model threads
     // ==========================================================================
 
-    private void dispatchMessages(ResponseSet responseSet) {
-        if (responseSet == null) {
+    /**
+     * Queues a task on the shard for its channel, or, for a task about no
+     * channel in particular, as a {@link Barrier} on every shard.
+     */
+    private void submit(Task task) {
+        if (shards.length == 1) {
+            shards[0].queue.add(task);
+            return;
+        }
+        String channel = task.getChannel();
+        if (channel != null) {
+            shards[Math.floorMod(channel.hashCode(), shards.length)].queue.add(task);
             return;
         }
+        // Barriers must reach every shard in the same order, or two shards
+        // could each wait at a different one for the other. Once stopping,
+        // a shard may already have exited, so no new barrier could complete
+        Barrier barrier = new Barrier(task, shards.length);
+        synchronized (barrierLock) {
+            if (!running) {
+                return;
+            }
+            for (ModelShard shard : shards) {
+                shard.queue.add(barrier);
+            }
+        }
+    }
+
+    /**
+     * A model thread with its own task queue.
+     */
+    private final class ModelShard implements Runnable {
+        private final int index;
+        private final TaskQueue<Task> queue;
+
+        // Connections sent to during the current batch of tasks
+        private final Set<ClientConnection> unflushed =
+                Collections.newSetFromMap(new IdentityHashMap<>());
+        private int batchLines;
+
+        private volatile Thread thread;
 
-        Set<Response> responses = responseSet.getResponses();
-        for (Response response : responses) {
+        ModelShard(int index) {
+            this.index = index;
+            this.queue = config.newTaskQueue(Task::getUserId, Task::isControl);
+        }
+
+        void start() {
+            String name = shards.length == 1 ? "Model thread" : "Model thread " + index;
+            thread = new Thread(this, name);
+            thread.start();
+        }
+
+        void interrupt() {
+            Thread t = thread;
+            if (t != null) {
+                t.interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Task> batch = new ArrayList<>(config.getTaskBatch());
+            while (!isFinished()) {
+                try {
+                    queue.take(batch, config.getTaskBatch());
+                } catch (InterruptedException ix) {
+                    continue;
+                }
+                FlightEvents.DispatchBatch event = new FlightEvents.DispatchBatch();
+                event.begin();
+                batchLines = 0;
+                for (Task task : batch) {
+                    task.runOn(this);
+                }
+                int tasks = batch.size();
+                batch.clear();
+                int connections = unflushed.size();
+                flushConnections();
+                event.end();
+                if (event.shouldCommit()) {
+                    event.shard = index;
+                    event.tasks = tasks;
+                    event.lines = batchLines;
+                    event.connections = connections;
+                    event.commit();
+                }
+            }
+            if (liveShards.decrementAndGet() == 0) {
+                closeListener();
+                FlightRecorder.removePeriodicEvent(backlogSampler);
+                if (watcher != null) {
+                    watcher.close();
+                }
+                log.close();
+                if (rateLimiter != null) {
+                    rateLimiter.close();
+                }
+                if (tracer != null) {
+                    tracer.close();
+                }
+            }
+        }
+
+        /*
+         * Checked under the barrier lock, so that a barrier is either queued
+         * here before this shard exits or not queued at all.
+         */
+        private boolean isFinished() {
+            if (running) {
+                return false;
+            }
+            synchronized (barrierLock) {
+                return queue.isEmpty();
+            }
+        }
+
+        void execute(Task task) {
             try {
-                Integer userId = response.getRecipientId();
-                Socket clientSocket = openSockets.get(userId);
-                PrintWriter pw = new PrintWriter(clientSocket.getOutputStream());
-                pw.println(response.getText());
-                pw.flush();
-                System.out.printf(
-                        "Response sent to user %d: \"%s\"\n",
-                        userId, response.getText()
-                );
-                pw.flush();
-            } catch (IOException iox) {
-                iox.printStackTrace();
+                FlightEvents.CommandExecuted event = new FlightEvents.CommandExecuted();
+                event.begin();
+                long start = System.nanoTime();
+                ResponseSet responseSet = task.doTask();
+                long done = System.nanoTime();
+                event.end();
+                executionTimes.get(task.getKind()).record(done - start);
+                Tracer.Trace trace = task.getTrace();
+                int lines = 0;
+                if (responseSet != null) {
+                    lines = dispatchMessages(responseSet, trace);
+                }
+                long sent = System.nanoTime();
+                dispatchTime.record(sent - done);
+                if (trace != null) {
+                    trace.dispatched(sent);
+                }
+                if (event.shouldCommit()) {
+                    event.command = task.getKind().getSimpleName();
+                    event.channel = task.getChannel();
+                    event.sender = task.getUserId();
+                    event.fanout = lines;
+                    event.commit();
+                }
+            } catch (RuntimeException rx) {
+                rx.printStackTrace();
             }
         }
+
+        private int dispatchMessages(ResponseSet responseSet, Tracer.Trace trace) {
+            // A broadcast is encoded once and the same bytes go to everyone
+            int lines = 0;
+            for (int b = 0; b < responseSet.getOutgoingCount(); b++) {
+                Broadcast broadcast = responseSet.getOutgoing(b);
+                byte[] line = broadcast.getEncodedLine();
+                if (trace != null) {
+                    trace.sending(line, broadcast.size());
+                }
+                for (int i = 0; i < broadcast.size(); i++) {
+                    ClientConnection connection =
+                            send(broadcast.getRecipientId(i), broadcast.getText(), line, true);
+                    if (connection != null) {
+                        unflushed.add(connection);
+                    } else if (trace != null) {
+                        trace.notSent();
+                    }
+                }
+                lines += broadcast.size();
+            }
+            fanout.record(lines);
+            batchLines += lines;
+            return lines;
+        }
+
+        /*
+         * Wakes each writer once, with everything the last batch of tasks
+         * produced for it.
+         */
+        void flushConnections() {
+            for (ClientConnection connection : unflushed) {
+                connection.flush();
+            }
+            unflushed.clear();
+        }
+    }
+
+    /**
+     * Queues a line on a client's connection without flushing it.
+     *
+     * @param mayWait whether the caller may wait for room, see
+     *                {@link ClientConnection#send(byte[], boolean)}
+     * @return the connection, or null if the client is gone
+     */
+    private ClientConnection send(int userId, String text, byte[] encodedLine,
+                                  boolean mayWait) {
+        ClientConnection connection = openConnections.get(userId);
+        if (connection == null) {
+            // The recipient disconnected before the response was ready
+            return null;
+        }
+        connection.send(encodedLine, mayWait);
+        log.log(
+                AsyncLog.Category.RESPONSE, AsyncLog.Level.INFO,
+                "Response sent to user %d: \"%s\"\n",
+                userId, text
+        );
+        return connection;
     }
 
     // ==========================================================================
@@ -181,42 +915,172 @@ final class ServerBackend implements Runnable {
     // ==========================================================================
 
     private final class ConnectionWorker implements Runnable {
+        private final SocketConnection connection;
         private final int userId;
         private final Socket clientSocket;
 
-        public ConnectionWorker(int userId, Socket clientSocket) {
-            this.userId = userId;
-            this.clientSocket = clientSocket;
+        public ConnectionWorker(SocketConnection connection) {
+            this.connection = connection;
+            this.userId = connection.userId;
+            this.clientSocket = connection.clientSocket;
         }
 
         @Override
         public void run() {
             try (
                     BufferedReader reader = new BufferedReader(
-                            new InputStreamReader(clientSocket.getInputStream())
+                            new InputStreamReader(new CountingInputStream(
+                                    clientSocket.getInputStream(), bytesReceived))
                     )) {
-                while (running && !clientSocket.isClosed()) {
-                    String line = reader.readLine();
-                    if (line != null) {
-                        System.out.printf(
-                                "Request received from user %d: " +
-                                        "\"%s\"\n",
-                                userId, line
-                        );
-                        Request request = new Request(userId, line);
-                        taskQueue.add(request);
-                    } else {
-                        clientSocket.close();
-                        taskQueue.add(new Disconnection(userId));
-                    }
+                String line;
+                while (running && (line = reader.readLine()) != null) {
+                    lineReceived(userId, line);
                 }
+            } catch (IOException iox) {
+                // Closing the socket on purpose, e.g. for a slow consumer,
+                // also ends up here, even from lineReceived on this thread
+                if (!clientSocket.isClosed()) {
+                    iox.printStackTrace();
+                }
+            }
+            connection.close();
+            connectionClosed(userId);
+        }
+    }
+
+    /**
+     * The blocking transport's connection: the model thread queues responses
+     * and {@link #drain()}, running on a worker thread of its own, writes
+     * them to the socket's output stream. Lines are gathered in a buffer and
+     * written with one flush once the queue is empty (or, with a write
+     * linger, once no more lines arrive in time).
+     */
+    private final class SocketConnection implements ClientConnection {
+        private final Socket clientSocket;
+        private final OutboundQueue outbound;
+
+        // Assigned by the accept thread before the worker threads start
+        private volatile int userId;
+
+        public SocketConnection(Socket clientSocket) {
+            this.clientSocket = clientSocket;
+            this.outbound = newOutboundQueue();
+        }
+
+        @Override
+        public void send(byte[] encodedLine, boolean mayWait) {
+            if (!outbound.offer(encodedLine, mayWait)) {
+                slowConsumer(userId);
+                close();
+            }
+        }
+
+        @Override
+        public void flush() {
+            outbound.flush();
+        }
+
+        @Override
+        public void close() {
+            outbound.close();
+            try {
+                clientSocket.close();
             } catch (IOException iox) {
                 iox.printStackTrace();
-                taskQueue.add(new Disconnection(userId));
-            } finally {
-                openSockets.remove(userId);
             }
         }
+
+        /**
+         * Writes queued lines until the connection is closed.
+         */
+        void drain() {
+            long lingerNanos = TimeUnit.MICROSECONDS.toNanos(config.getWriteLingerMicros());
+            List<byte[]> batch = new ArrayList<>(MAX_WRITE_BATCH);
+            List<byte[]> written = new ArrayList<>(); // lines that may be traced
+            try {
+                OutputStream out = new BufferedOutputStream(
+                        clientSocket.getOutputStream(), WRITE_BUFFER_SIZE
+                );
+                byte[] first;
+                while ((first = outbound.take()) != null) {
+                    long deadline = System.nanoTime() + lingerNanos;
+                    int lines = 0;
+                    long bytes = 0;
+                    long writing = 0; // not counting the linger
+                    batch.add(first);
+                    while (!batch.isEmpty()) {
+                        long start = System.nanoTime();
+                        boolean watching = tracer != null && tracer.isWatching();
+                        for (byte[] line : batch) {
+                            out.write(line);
+                            bytes += line.length;
+                            if (watching) {
+                                written.add(line);
+                            }
+                        }
+                        writing += System.nanoTime() - start;
+                        lines += batch.size();
+                        batch.clear();
+                        if (outbound.drainTo(batch, MAX_WRITE_BATCH) == 0) {
+                            long left = deadline - System.nanoTime();
+                            byte[] late = left > 0
+                                    ? outbound.poll(left, TimeUnit.NANOSECONDS)
+                                    : null;
+                            if (late != null) {
+                                batch.add(late);
+                            }
+                        }
+                    }
+                    long start = System.nanoTime();
+                    out.flush();
+                    long end = System.nanoTime();
+                    bytesWritten(bytes, writing + end - start);
+                    outboundStats.recordWrite(lines);
+                    for (byte[] line : written) {
+                        lineWritten(line, userId, end);
+                    }
+                    written.clear();
+                }
+            } catch (IOException iox) {
+                if (!clientSocket.isClosed()) {
+                    iox.printStackTrace();
+                }
+                close();
+            } catch (InterruptedException ix) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, for the blocking transports, whose
+     * readers only see characters.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final LongAdder count;
+
+        CountingInputStream(InputStream in, LongAdder count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count.add(n);
+            }
+            return n;
+        }
     }
 
     // ==========================================================================
@@ -229,6 +1093,106 @@ final class ServerBackend implements Runnable {
      */
     private interface Task {
         ResponseSet doTask();
+
+        /** @return the client the task is for */
+        int getUserId();
+
+        /**
+         * @return whether a {@link FairTaskQueue} should serve the task ahead
+         *         of other clients' commands
+         */
+        default boolean isControl() {
+            return false;
+        }
+
+        /** @return the channel the task is about, or null for none */
+        default String getChannel() {
+            return null;
+        }
+
+        /** @return what kind of work the task is, to time each kind apart */
+        default Class<?> getKind() {
+            return getClass();
+        }
+
+        /** @return the task's trace, or null if it is not traced */
+        default Tracer.Trace getTrace() {
+            return null;
+        }
+
+        /** Runs the task on a model thread and sends its responses. */
+        default void runOn(ModelShard shard) {
+            shard.execute(this);
+        }
+    }
+
+    /**
+     * A task about no channel in particular, queued on every shard. Each
+     * shard stops when it reaches the barrier. Once all of them have, shard 0
+     * runs the task while the others wait, so the task never sees a command
+     * half done and every later command sees its effects.
+     */
+    private static final class Barrier implements Task {
+        private final Task task;
+        private final CountDownLatch arrived;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        Barrier(Task task, int shards) {
+            this.task = task;
+            this.arrived = new CountDownLatch(shards);
+        }
+
+        @Override
+        public ResponseSet doTask() {
+            return task.doTask();
+        }
+
+        @Override
+        public int getUserId() {
+            return task.getUserId();
+        }
+
+        /*
+         * Barriers must leave every shard's queue in the order they were
+         * added to all of them, which the control lane guarantees
+         */
+        @Override
+        public boolean isControl() {
+            return true;
+        }
+
+        @Override
+        public void runOn(ModelShard shard) {
+            // Let this shard's clients have their lines while it waits
+            shard.flushConnections();
+            arrived.countDown();
+            if (shard.index == 0) {
+                awaitUninterruptibly(arrived);
+                shard.execute(task);
+                done.countDown();
+            } else {
+                awaitUninterruptibly(done);
+            }
+        }
+
+        /*
+         * Every shard drains its queue before it exits, so the barrier is
+         * always completed; an interrupt is kept for the shard's loop.
+         */
+        private static void awaitUninterruptibly(CountDownLatch latch) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException ix) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     /**
@@ -245,6 +1209,16 @@ final class ServerBackend implements Runnable {
         public ResponseSet doTask() {
             return model.registerUser(userId);
         }
+
+        @Override
+        public int getUserId() {
+            return userId;
+        }
+
+        @Override
+        public boolean isControl() {
+            return true;
+        }
     }
 
     /**
@@ -261,25 +1235,77 @@ final class ServerBackend implements Runnable {
         public ResponseSet doTask() {
             return model.deregisterUser(userId);
         }
+
+        @Override
+        public int getUserId() {
+            return userId;
+        }
+
+        @Override
+        public boolean isControl() {
+            return true;
+        }
     }
 
     /**
-     * Represents an incoming command from a connected client.
+     * Represents an incoming command from a connected client, already parsed
+     * and validated by the thread that received it.
      */
     private final class Request implements Task {
-        private final int userId;
-        private final String payload;
+        private final Command command;
+        private final long enqueuedAt;
+        private final Tracer.Trace trace;
 
-        public Request(int userId, String payload) {
-            this.userId = userId;
-            this.payload = payload;
+        public Request(Command command, Tracer.Trace trace) {
+            this.command = command;
+            this.enqueuedAt = System.nanoTime();
+            this.trace = trace;
+            if (trace != null) {
+                trace.queued(enqueuedAt);
+            }
+        }
+
+        @Override
+        public Tracer.Trace getTrace() {
+            return trace;
+        }
+
+        @Override
+        public String getChannel() {
+            return command.getChannel();
+        }
+
+        @Override
+        public int getUserId() {
+            return command.getSenderId();
+        }
+
+        @Override
+        public Class<?> getKind() {
+            return command.getClass();
         }
 
         @Override
         public ResponseSet doTask() {
-            Command command = CommandParser.parse(userId, payload);
-            assert command != null;
-            return command.updateServerModel(model);
+            long start = System.nanoTime();
+            long wait = start - enqueuedAt;
+            queueWait.record(wait);
+            if (trace != null) {
+                trace.dequeued(start);
+            }
+            if (admission != null && !admission.started(command, wait)) {
+                // Waited too long; newer messages matter more
+                return ResponseSet.singleMessage(Response.error(command, ErrorCode.SERVER_BUSY));
+            }
+            if (!model.existingUserId(command.getSenderId())) {
+                // The sender disconnected after sending this
+                return ResponseSet.empty();
+            }
+            ResponseSet responseSet = command.updateServerModel(model);
+            if (trace != null) {
+                trace.modelDone(System.nanoTime());
+            }
+            return responseSet;
         }
     }
 }
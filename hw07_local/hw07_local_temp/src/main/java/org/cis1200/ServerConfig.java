@@ -0,0 +1,481 @@
+package org.cis1200;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * {@code ServerConfig} holds the startup options for a {@link ServerBackend}.
+ * Options are read from {@code key=value} pairs, either from the command line
+ * (see {@link #fromArgs(String[])}) or from a {@link Properties} object.
+ * Any option that is not given keeps the default shown below, so a server
+ * started without arguments behaves exactly like the original one.
+ *
+ * <pre>
+ *   port=21212          TCP port to listen on (0 picks a free port)
+ *   transport=blocking  blocking | nio | virtual
+ *   eventLoops=2        number of selector threads used by the nio transport
+ *   outboundCapacity=1024
+ *                       lines queued per client before the overflow policy applies
+ *   overflow=disconnect drop_oldest | disconnect | block
+ *   writeLingerMicros=0 how long a writer waits for more lines before writing;
+ *                       higher values mean fewer, larger writes but more latency
+ *   requestLog=info     off | warn | info | debug, for lines received
+ *   responseLog=info    the same, for lines sent
+ *   serverLog=info      the same, for other server events
+ *   requestLogSample=1  log one in this many lines of the category at random
+ *   responseLogSample=1 (likewise serverLogSample)
+ *   logBuffer=8192      log lines waiting to be written before new ones are dropped
+ *   taskQueue=linked    linked (unbounded) | ring (preallocated, lock-free) |
+ *                       fair (unbounded, clients served round-robin);
+ *                       ring is refused with transport=nio and overflow=block
+ *   taskQueueCapacity=65536
+ *                       slots in the ring; producers wait when it is full
+ *   waitStrategy=block  block | yield | spin, how the ring's threads wait
+ *   fairQuantum=1       tasks a client may have run per turn with taskQueue=fair
+ *   taskBatch=256       the most tasks the model thread takes at once
+ *   shards=1            model threads; commands are spread over them by channel
+ *   execution=queued    queued (on the model threads) | inline (on the threads
+ *                       that read the commands, under striped locks); inline
+ *                       is refused with transport=nio and overflow=block
+ *   lockStripes=64      locks shared out among channels and users when inline
+ *   userRate=0          commands per second per client; 0 means no limit
+ *   userBurst=10        commands a client may send at once
+ *   channelRate=0       messages per second per channel (slow mode); 0 means no limit
+ *   channelBurst=10     messages a channel accepts at once
+ *   rateLimit=reject    reject (with an error) | delay, for commands over a limit
+ *   rateLimitMaxDelayMillis=1000
+ *                       the longest a command is delayed before it is rejected
+ *   shedHighWatermark=0 queued commands at which the server starts shedding
+ *                       messages from its heaviest senders; 0 means never
+ *   shedLowWatermark    queued commands at which it stops (default: half the high one)
+ *   maxQueueWaitMillis=0
+ *                       the longest a command should wait for the model; messages
+ *                       that wait longer are dropped; 0 means no limit
+ *   metricsPort=-1      port on localhost serving GET /metrics as text (0 picks a
+ *                       free port); -1 means none, though metrics are still kept
+ *   traceSample=0       trace one in this many commands through every stage, from
+ *                       read to each recipient's write; 0 means none
+ *   traceFile=traces.log
+ *                       where the traces are appended (see Tracer)
+ *   profiling=false     watch the server's own Flight Recorder events in-process
+ *                       and warn when a limit below is crossed (see FlightEvents)
+ *   busyWarnPercent=90  how much of a second a model thread may spend busy
+ *   slowCommandMillis=50
+ *                       how long a command may take in the model
+ * </pre>
+ */
+final class ServerConfig {
+
+    /**
+     * The ways the backend can accept and serve client sockets.
+     */
+    enum Transport {
+        /** One blocking {@code ConnectionWorker} per socket on a cached pool. */
+        BLOCKING,
+        /** Non-blocking channels multiplexed over a few selector threads. */
+        NIO,
+        /**
+         * The blocking transport with the accept loop and every
+         * {@code ConnectionWorker} on virtual threads (requires Java 21+).
+         */
+        VIRTUAL
+    }
+
+    /**
+     * Where the backend runs commands against the model.
+     */
+    enum Execution {
+        /** Queued for the model threads. */
+        QUEUED,
+        /** On the thread that read the command, through a {@link StripedModel}. */
+        INLINE
+    }
+
+    private final int port;
+    private final Transport transport;
+    private final int eventLoops;
+    private final int outboundCapacity;
+    private final OutboundQueue.OverflowPolicy overflow;
+    private final int writeLingerMicros;
+    private final Map<AsyncLog.Category, AsyncLog.Level> logLevels =
+            new EnumMap<>(AsyncLog.Category.class);
+    private final Map<AsyncLog.Category, Integer> logSampling =
+            new EnumMap<>(AsyncLog.Category.class);
+    private final int logBuffer;
+    private final String taskQueue;
+    private final int taskQueueCapacity;
+    private final TaskQueue.WaitStrategy waitStrategy;
+    private final int fairQuantum;
+    private final int taskBatch;
+    private final int shards;
+    private final Execution execution;
+    private final int lockStripes;
+    private final double userRate;
+    private final int userBurst;
+    private final double channelRate;
+    private final int channelBurst;
+    private final RateLimiter.Policy rateLimit;
+    private final int rateLimitMaxDelayMillis;
+    private final int shedHighWatermark;
+    private final int shedLowWatermark;
+    private final int maxQueueWaitMillis;
+    private final int metricsPort;
+    private final int traceSample;
+    private final String traceFile;
+    private final boolean profiling;
+    private final int busyWarnPercent;
+    private final int slowCommandMillis;
+
+    /**
+     * Reads the configuration out of a set of properties.
+     *
+     * @param props the options to use; missing keys fall back to defaults
+     * @throws IllegalArgumentException if an option has a malformed value
+     */
+    ServerConfig(Properties props) {
+        port = intOption(props, "port", 21212);
+        transport = Transport.valueOf(
+                props.getProperty("transport", "blocking").trim().toUpperCase()
+        );
+        eventLoops = intOption(
+                props, "eventLoops",
+                Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2))
+        );
+        if (eventLoops < 1) {
+            throw new IllegalArgumentException("eventLoops must be positive");
+        }
+        outboundCapacity = intOption(props, "outboundCapacity", 1024);
+        if (outboundCapacity < 1) {
+            throw new IllegalArgumentException("outboundCapacity must be positive");
+        }
+        overflow = OutboundQueue.OverflowPolicy.valueOf(
+                props.getProperty("overflow", "disconnect").trim().toUpperCase()
+        );
+        writeLingerMicros = intOption(props, "writeLingerMicros", 0);
+        if (writeLingerMicros < 0) {
+            throw new IllegalArgumentException("writeLingerMicros must not be negative");
+        }
+        for (AsyncLog.Category category : AsyncLog.Category.values()) {
+            String prefix = category.name().toLowerCase();
+            logLevels.put(category, AsyncLog.Level.valueOf(
+                    props.getProperty(prefix + "Log", "info").trim().toUpperCase()
+            ));
+            int every = intOption(props, prefix + "LogSample", 1);
+            if (every < 1) {
+                throw new IllegalArgumentException(prefix + "LogSample must be positive");
+            }
+            logSampling.put(category, every);
+        }
+        logBuffer = intOption(props, "logBuffer", 8192);
+        if (logBuffer < 1) {
+            throw new IllegalArgumentException("logBuffer must be positive");
+        }
+        taskQueue = props.getProperty("taskQueue", "linked").trim().toLowerCase();
+        if (!taskQueue.equals("linked") && !taskQueue.equals("ring")
+                && !taskQueue.equals("fair")) {
+            throw new IllegalArgumentException(
+                    "taskQueue must be linked, ring or fair: " + taskQueue);
+        }
+        taskQueueCapacity = intOption(props, "taskQueueCapacity", 65536);
+        if (taskQueueCapacity < 1 || taskQueueCapacity > 1 << 30) {
+            throw new IllegalArgumentException("taskQueueCapacity must be between 1 and 2^30");
+        }
+        waitStrategy = TaskQueue.WaitStrategy.valueOf(
+                props.getProperty("waitStrategy", "block").trim().toUpperCase()
+        );
+        fairQuantum = intOption(props, "fairQuantum", 1);
+        if (fairQuantum < 1) {
+            throw new IllegalArgumentException("fairQuantum must be positive");
+        }
+        taskBatch = intOption(props, "taskBatch", 256);
+        if (taskBatch < 1) {
+            throw new IllegalArgumentException("taskBatch must be positive");
+        }
+        shards = intOption(props, "shards", 1);
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive");
+        }
+        execution = Execution.valueOf(
+                props.getProperty("execution", "queued").trim().toUpperCase()
+        );
+        lockStripes = intOption(props, "lockStripes", 64);
+        if (lockStripes < 1) {
+            throw new IllegalArgumentException("lockStripes must be positive");
+        }
+        if (execution == Execution.INLINE && transport == Transport.NIO
+                && overflow == OutboundQueue.OverflowPolicy.BLOCK) {
+            // Every command would run, and wait for room, on an event loop
+            throw new IllegalArgumentException(
+                    "execution=inline cannot be used with transport=nio and overflow=block");
+        }
+        if (taskQueue.equals("ring") && execution == Execution.QUEUED
+                && transport == Transport.NIO && overflow == OutboundQueue.OverflowPolicy.BLOCK) {
+            // An event loop waiting for room in a ring could be the one a
+            // model thread waits for to write
+            throw new IllegalArgumentException(
+                    "taskQueue=ring cannot be used with transport=nio and overflow=block");
+        }
+        userRate = doubleOption(props, "userRate", 0);
+        userBurst = intOption(props, "userBurst", 10);
+        channelRate = doubleOption(props, "channelRate", 0);
+        channelBurst = intOption(props, "channelBurst", 10);
+        if (userRate < 0 || channelRate < 0) {
+            throw new IllegalArgumentException("userRate and channelRate must not be negative");
+        }
+        if (userBurst < 1 || channelBurst < 1) {
+            throw new IllegalArgumentException("userBurst and channelBurst must be positive");
+        }
+        rateLimit = RateLimiter.Policy.valueOf(
+                props.getProperty("rateLimit", "reject").trim().toUpperCase()
+        );
+        rateLimitMaxDelayMillis = intOption(props, "rateLimitMaxDelayMillis", 1000);
+        if (rateLimitMaxDelayMillis < 0) {
+            throw new IllegalArgumentException("rateLimitMaxDelayMillis must not be negative");
+        }
+        shedHighWatermark = intOption(props, "shedHighWatermark", 0);
+        shedLowWatermark = intOption(props, "shedLowWatermark", shedHighWatermark / 2);
+        maxQueueWaitMillis = intOption(props, "maxQueueWaitMillis", 0);
+        if (shedHighWatermark < 0 || shedLowWatermark < 0 || maxQueueWaitMillis < 0) {
+            throw new IllegalArgumentException(
+                    "shedHighWatermark, shedLowWatermark and maxQueueWaitMillis must not be negative");
+        }
+        if (shedHighWatermark > 0 && shedLowWatermark >= shedHighWatermark) {
+            throw new IllegalArgumentException("shedLowWatermark must be below shedHighWatermark");
+        }
+        metricsPort = intOption(props, "metricsPort", -1);
+        if (metricsPort < -1) {
+            throw new IllegalArgumentException("metricsPort must be -1 or a port");
+        }
+        traceSample = intOption(props, "traceSample", 0);
+        if (traceSample < 0) {
+            throw new IllegalArgumentException("traceSample must not be negative");
+        }
+        traceFile = props.getProperty("traceFile", "traces.log").trim();
+        String profile = props.getProperty("profiling", "false").trim().toLowerCase();
+        if (!profile.equals("true") && !profile.equals("false")) {
+            throw new IllegalArgumentException("profiling must be true or false: " + profile);
+        }
+        profiling = profile.equals("true");
+        busyWarnPercent = intOption(props, "busyWarnPercent", 90);
+        if (busyWarnPercent < 1 || busyWarnPercent > 100) {
+            throw new IllegalArgumentException("busyWarnPercent must be between 1 and 100");
+        }
+        slowCommandMillis = intOption(props, "slowCommandMillis", 50);
+        if (slowCommandMillis < 1) {
+            throw new IllegalArgumentException("slowCommandMillis must be positive");
+        }
+    }
+
+    /** @return a configuration with every option at its default */
+    static ServerConfig defaults() {
+        return new ServerConfig(new Properties());
+    }
+
+    /**
+     * Builds a configuration from command line arguments of the form
+     * {@code key=value} (a leading {@code --} is allowed and ignored).
+     *
+     * @param args the command line arguments
+     * @return the parsed configuration
+     * @throws IllegalArgumentException if an argument is not a key=value pair
+     */
+    static ServerConfig fromArgs(String[] args) {
+        Properties props = new Properties();
+        for (String arg : args) {
+            String option = arg.startsWith("--") ? arg.substring(2) : arg;
+            int eq = option.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            props.setProperty(option.substring(0, eq), option.substring(eq + 1));
+        }
+        return new ServerConfig(props);
+    }
+
+    /** @return the TCP port to listen on */
+    int getPort() {
+        return port;
+    }
+
+    /** @return how client sockets are served */
+    Transport getTransport() {
+        return transport;
+    }
+
+    /** @return the number of selector threads for {@link Transport#NIO} */
+    int getEventLoops() {
+        return eventLoops;
+    }
+
+    /** @return the most lines queued for one client */
+    int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    /** @return what happens when a client's outbound queue is full */
+    OutboundQueue.OverflowPolicy getOverflow() {
+        return overflow;
+    }
+
+    /** @return how long a writer waits for more lines, in microseconds */
+    int getWriteLingerMicros() {
+        return writeLingerMicros;
+    }
+
+    /** @return the most detailed level logged for the category */
+    AsyncLog.Level getLogLevel(AsyncLog.Category category) {
+        return logLevels.get(category);
+    }
+
+    /** @return how many lines of the category are logged per line written */
+    int getLogSampling(AsyncLog.Category category) {
+        return logSampling.get(category);
+    }
+
+    /** @return the capacity of the log buffer */
+    int getLogBuffer() {
+        return logBuffer;
+    }
+
+    /**
+     * Creates the queue that carries tasks to the model thread.
+     *
+     * @param <T>       the type of the tasks
+     * @param laneOf    the client a task came from, for a {@link FairTaskQueue}
+     * @param isControl which tasks a {@link FairTaskQueue} serves first
+     * @return a {@link LinkedTaskQueue}, {@link RingTaskQueue} or
+     *         {@link FairTaskQueue}
+     */
+    <T> TaskQueue<T> newTaskQueue(Function<? super T, ?> laneOf, Predicate<? super T> isControl) {
+        if (taskQueue.equals("ring")) {
+            return new RingTaskQueue<>(taskQueueCapacity, waitStrategy);
+        }
+        if (taskQueue.equals("fair")) {
+            return new FairTaskQueue<>(laneOf, isControl, fairQuantum);
+        }
+        return new LinkedTaskQueue<>();
+    }
+
+    /** @return the most tasks the model thread takes from its queue at once */
+    int getTaskBatch() {
+        return taskBatch;
+    }
+
+    /** @return the number of model threads */
+    int getShards() {
+        return shards;
+    }
+
+    /** @return where commands are run */
+    Execution getExecution() {
+        return execution;
+    }
+
+    /** @return the number of locks for {@link Execution#INLINE} */
+    int getLockStripes() {
+        return lockStripes;
+    }
+
+    /**
+     * Creates the rate limiter for the configured limits.
+     *
+     * @return a new {@link RateLimiter}, or null if no limit is set
+     */
+    RateLimiter newRateLimiter() {
+        if (userRate == 0 && channelRate == 0) {
+            return null;
+        }
+        return new RateLimiter(
+                userRate, userBurst, channelRate, channelBurst, rateLimit,
+                TimeUnit.MILLISECONDS.toNanos(rateLimitMaxDelayMillis)
+        );
+    }
+
+    /**
+     * Creates the admission controller for the configured limits. It only
+     * applies to commands queued for the model threads.
+     *
+     * @param log where the controller reports overload
+     * @return a new {@link AdmissionController}, or null if no limit is set
+     */
+    AdmissionController newAdmissionController(AsyncLog log) {
+        if (shedHighWatermark == 0 && maxQueueWaitMillis == 0) {
+            return null;
+        }
+        return new AdmissionController(
+                shedHighWatermark, shedLowWatermark,
+                TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMillis), log
+        );
+    }
+
+    /** @return the port for the metrics endpoint, 0 for any, or -1 for none */
+    int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Creates the tracer for the configured sampling rate. It writes nothing
+     * until it is started.
+     *
+     * @return a new {@link Tracer}, or null if tracing is off
+     */
+    Tracer newTracer() {
+        return traceSample == 0 ? null : new Tracer(traceSample, traceFile);
+    }
+
+    /**
+     * Creates the watcher for the server's Flight Recorder events. It records
+     * nothing until it is started.
+     *
+     * @param log where the watcher warns
+     * @return a new {@link ProfilingWatcher}, or null if profiling is off
+     */
+    ProfilingWatcher newProfilingWatcher(AsyncLog log) {
+        if (!profiling) {
+            return null;
+        }
+        return new ProfilingWatcher(
+                busyWarnPercent / 100.0, TimeUnit.MILLISECONDS.toNanos(slowCommandMillis), log
+        );
+    }
+
+    // ==========================================================================
+    // Utility methods, shared with the LoadGenerator
+    // ==========================================================================
+
+    /**
+     * @return the option as a number, or the default if it is not set
+     * @throws IllegalArgumentException if the option is not a number
+     */
+    static double doubleOption(Properties props, String key, double defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException nfx) {
+            throw new IllegalArgumentException(key + " must be a number: " + value);
+        }
+    }
+
+    /**
+     * @return the option as an integer, or the default if it is not set
+     * @throws IllegalArgumentException if the option is not an integer
+     */
+    static int intOption(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException nfx) {
+            throw new IllegalArgumentException(key + " must be an integer: " + value);
+        }
+    }
+}
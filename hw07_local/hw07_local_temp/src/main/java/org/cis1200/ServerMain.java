@@ -17,9 +17,10 @@ public final class ServerMain {
     /**
      * Entry point for the server
      * 
-     * @param args command line args (none needed)
+     * @param args optional {@code key=value} settings, see {@link ServerConfig}
      */
     public static void main(String[] args) {
+        final ServerConfig config = ServerConfig.fromArgs(args);
         final JFrame frame = new JFrame("PennPals Server");
         JLabel message = new JLabel(
                 "<html>Hello, my name is Grace.<br />" +
@@ -34,7 +35,7 @@ public final class ServerMain {
         frame.setSize(new Dimension(250, 150));
 
         final ServerModel state = new ServerModel();
-        final ServerBackend server = new ServerBackend(state);
+        final ServerBackend server = new ServerBackend(state, config);
         final Timer timer = new Timer(100, null);
 
         timer.addActionListener(e -> {
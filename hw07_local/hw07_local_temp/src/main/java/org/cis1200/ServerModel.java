@@ -1,6 +1,7 @@
 package org.cis1200;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The {@code ServerModel} is the class responsible for tracking the
@@ -19,12 +20,28 @@ public class ServerModel {
      * used to model the server state here.
      */
 
-    private Map<String, Integer> users;
-    private Set<ChannelInfo> channels;
+    // Every lookup a command handler needs is a single hash probe:
+    // userId -> user record, nickname -> userId and channel name -> channel.
+    // The first two maps always describe the same set of users. Each
+    // UserInfo also lists the channels its user belongs to, so renames and
+    // disconnects only visit those channels.
+    //
+    // Commands about different channels may run at the same time, provided
+    // that commands about no channel in particular (registration, NICK,
+    // disconnection) run on their own; see Command#getChannel(). The maps
+    // are concurrent for that reason, and each ChannelInfo is only touched
+    // by one command at a time.
+    private Map<Integer, UserInfo> users;
+    private Map<String, Integer> userIds;
+    private Map<String, ChannelInfo> channels;
+    // Knows which default "UserX" nicknames are taken
+    private NicknameAllocator defaultNicknames;
 
     public ServerModel() {
-        users = new TreeMap<>();
-        channels = new TreeSet<>();
+        users = new ConcurrentHashMap<>();
+        userIds = new ConcurrentHashMap<>();
+        channels = new ConcurrentHashMap<>();
+        defaultNicknames = new NicknameAllocator();
     }
 
     // =========================================================================
@@ -40,7 +57,7 @@ public class ServerModel {
      * @return whether the nickname is currently in use by any user in any channel
      */
     public boolean existingNickname(String nickname) {
-        return users.containsKey(nickname);
+        return nickname != null && userIds.containsKey(nickname);
     }
 
     /**
@@ -50,7 +67,7 @@ public class ServerModel {
      * @return whether the userId has been registered for any client
      */
     public boolean existingUserId(Integer userId) {
-        return users.containsValue(userId);
+        return users.containsKey(userId);
     }
 
     /**
@@ -63,14 +80,27 @@ public class ServerModel {
      *                                  with the nickname.
      */
     public int getUserId(String userNickname) {
-        if (users.containsKey(userNickname)) {
-            return users.get(userNickname);
+        Integer userId = findUserId(userNickname);
+        if (userId != null) {
+            return userId;
         }
         throw new IllegalArgumentException(
                 "User " + userNickname + " does not exist"
         );
     }
 
+    /**
+     * Gets the userId currently associated with the given nickname, without
+     * throwing when there is none.
+     *
+     * @param userNickname The nickname for which to get the associated userId
+     * @return The userId of the user with the provided nickname, or null if
+     *         no user has that nickname
+     */
+    public Integer findUserId(String userNickname) {
+        return userNickname == null ? null : userIds.get(userNickname);
+    }
+
     /*
      * Make sure to write your own tests in ServerModelTest.java.
      * The tests we provide for each task are NOT comprehensive!
@@ -86,20 +116,72 @@ public class ServerModel {
      * @throws IllegalArgumentException if the userId is not in use
      */
     public String getNickname(int userId) {
-        if (users.containsValue(userId)) {
-            //iterating through each key value pair
-            for (Map.Entry<String, Integer> entry : users.entrySet()) {
-                if (entry.getValue() == userId) {
-                    return entry.getKey();
-                }
+        return getUser(userId).getNickname();
+    }
 
-            }
-        }
-        throw new IllegalArgumentException(
-                "User Id " + userId
-                        + " has no associate nickname."
-        );
+    /**
+     * Gets the nickname currently associated with the given userId, without
+     * throwing when there is none.
+     *
+     * @param userId The userId for which to get the associated nickname
+     * @return The nickname of the user with that userId, or null if the
+     *         userId is not in use
+     */
+    public String findNickname(int userId) {
+        UserInfo user = users.get(userId);
+        return user == null ? null : user.getNickname();
+    }
 
+    /**
+     * Gets the channels a user belongs to, for {@link StripedModel}, which
+     * has to know what a command about the user will touch before running it.
+     *
+     * @param userId The userId to look up
+     * @return A live, unmodifiable view of the user's channel names, or null
+     *         if the userId is not in use
+     */
+    Set<String> findChannelsOf(int userId) {
+        UserInfo user = users.get(userId);
+        return user == null ? null : user.getChannels();
+    }
+
+    /**
+     * Counts the registered users, for the backend's {@link Metrics}. Unlike
+     * {@link #getRegisteredUsers()} this copies nothing, and any thread may
+     * call it.
+     *
+     * @return the number of registered users
+     */
+    int countUsers() {
+        return users.size();
+    }
+
+    /**
+     * Counts the channels, for the backend's {@link Metrics}. Any thread may
+     * call it.
+     *
+     * @return the number of channels
+     */
+    int countChannels() {
+        return channels.size();
+    }
+
+    /**
+     * Helper for the methods that need a user's record.
+     *
+     * @param userId The userId to look up
+     * @return The {@link UserInfo} of the user with that userId
+     * @throws IllegalArgumentException if the userId is not in use
+     */
+    private UserInfo getUser(int userId) {
+        UserInfo user = users.get(userId);
+        if (user == null) {
+            throw new IllegalArgumentException(
+                    "User Id " + userId
+                            + " has no associate nickname."
+            );
+        }
+        return user;
     }
 
     /**
@@ -112,7 +194,7 @@ public class ServerModel {
      * @return The collection of registered user nicknames
      */
     public Collection<String> getRegisteredUsers() {
-        return new TreeSet<>(users.keySet());
+        return new TreeSet<>(userIds.keySet());
     }
 
     /**
@@ -125,7 +207,7 @@ public class ServerModel {
      * @return The collection of channels
      */
     public Collection<ChannelInfo> getRegisteredChannels() {
-        return new TreeSet<>(channels);
+        return new TreeSet<>(channels.values());
     }
 
     /**
@@ -138,11 +220,7 @@ public class ServerModel {
      * @return The collection of channel names
      */
     public Collection<String> getChannels() {
-        TreeSet<String> channelNames = new TreeSet<>();
-        for (ChannelInfo channel : channels) {
-            channelNames.add(channel.getChannelName());
-        }
-        return channelNames;
+        return new TreeSet<>(channels.keySet());
     }
 
 
@@ -159,13 +237,7 @@ public class ServerModel {
      * @throws IllegalArgumentException if the channel does not exist
      */
     public Collection<Integer> getUserIdsInChannel(String channelName) {
-        for (ChannelInfo channel : channels) {
-            if (channel.getChannelName().equals(channelName)) {
-                return channel.getUserIds();
-            }
-        }
-        throw new IllegalArgumentException("Unknown channel: " + channelName);
-
+        return getChannel(channelName).getUserIds();
     }
 
     /**
@@ -180,13 +252,7 @@ public class ServerModel {
      * @throws IllegalArgumentException if there is no channel with the given name
      */
     public SortedSet<String> getUserNicknamesInChannel(String channelName) {
-        for (ChannelInfo channel : channels) {
-            if (channel.getChannelName().equals(channelName)) {
-                return new TreeSet<>(channel.getUserNames());
-            }
-        }
-
-        throw new IllegalArgumentException("Unknown channel: " + channelName);
+        return getChannel(channelName).getUserNames();
     }
 
     /**
@@ -200,13 +266,7 @@ public class ServerModel {
      *                                  the given name
      */
     public String getOwner(String channelName) {
-        for (ChannelInfo channel : channels) {
-            if (channel.getChannelName().equals(channelName)) {
-                return channel.getOwner();
-            }
-        }
-
-        throw new IllegalArgumentException("Unknown channel: " + channelName);
+        return getChannel(channelName).getOwner();
     }
 
 // ===============================================
@@ -226,12 +286,13 @@ public class ServerModel {
      *         successful.
      */
     public ResponseSet registerUser(int userId) {
-        String userNickname = generateUniqueNickname();
         // We have taken care of generating the nickname and returning
         // the ResponseSet for you. You need to modify this method to
         // store the new user in this model's internal state.
         if (!existingUserId(userId)) {
-            users.put(userNickname, userId);
+            String userNickname = generateUniqueNickname();
+            users.put(userId, new UserInfo(userId, userNickname));
+            userIds.put(userNickname, userId);
             return ResponseSet.singleMessage(Response.connected(userId, userNickname));
         }
 
@@ -246,17 +307,13 @@ public class ServerModel {
      *
      * Generates a unique nickname of the form "UserX", where X is the
      * smallest non-negative integer that yields a unique nickname for a user.
+     * The {@link NicknameAllocator} tracks which of these names are taken, so
+     * this does not look at the registered users.
      *
      * @return The generated nickname
      */
     private String generateUniqueNickname() {
-        int suffix = 0;
-        String userNickname;
-        Collection<String> existingUsers = getRegisteredUsers();
-        do {
-            userNickname = "User" + suffix++;
-        } while (existingUsers.contains(userNickname));
-        return userNickname;
+        return defaultNicknames.allocate();
     }
 
     /**
@@ -285,22 +342,22 @@ public class ServerModel {
         //variable to hold all the userIds that share a channel with this one
         Set<Integer> allConnectedUsers = new TreeSet<>();
         //getting the user's nickname
-        String userName = getNickname(userId);
+        UserInfo user = getUser(userId);
+        String userName = user.getNickname();
         //removing from server users
-        users.remove(userName);
-        //iterating through the channels
-        for (ChannelInfo channel : getRegisteredChannels()) {
+        users.remove(userId);
+        userIds.remove(userName);
+        defaultNicknames.release(userName);
+        //iterating through only the channels the user is in
+        for (String channelName : user.getChannels()) {
+            ChannelInfo channel = channels.get(channelName);
+            //deleting the user from list of users
+            channel.deleteUser(userId);
+            allConnectedUsers.addAll(channel.getUserIds());
             //deleting the channel if the user owns it
             if (channel.getOwnerID() == userId) {
-                channel.deleteUser(userId);
-                allConnectedUsers.addAll(channel.getUserIds());
-                channels.remove(channel);
-            } else if (channel.getUserIds().contains(userId)) {
-                //deleting the user from list of users
-                channel.deleteUser(userId);
-                allConnectedUsers.addAll(channel.getUserIds());
+                removeChannel(channel);
             }
-
         }
 
         //adding response for every single user who shared channel w disconnected user
@@ -336,7 +393,8 @@ public class ServerModel {
      */
     public ResponseSet changeNickname(NicknameCommand nickCommand) {
         int userId = nickCommand.getSenderId();
-        String oldName = getNickname(userId);
+        UserInfo user = getUser(userId);
+        String oldName = user.getNickname();
         String newName = nickCommand.getNewNickname();
 
         //variable to store all users that share at least one channel w this one
@@ -354,17 +412,18 @@ public class ServerModel {
 
         //need to modify the nickname in the list of registered users
         //deleting the old key value pair
-        users.remove(oldName);
+        userIds.remove(oldName);
         //adding it back in with new nickname
-        users.put(newName, userId);
-
-        //updating their names in all the channels
-        for (ChannelInfo channel: channels) {
-            if (channel.userInChannel(userId)) {
-                channel.updateNickName(userId, newName);
-                allConnectedUsers.addAll(channel.getUserIds());
-            }
-
+        userIds.put(newName, userId);
+        user.setNickname(newName);
+        defaultNicknames.release(oldName);
+        defaultNicknames.claim(newName);
+
+        //updating their names in all the channels they are in
+        for (String channelName : user.getChannels()) {
+            ChannelInfo channel = channels.get(channelName);
+            channel.updateNickName(userId, newName);
+            allConnectedUsers.addAll(channel.getUserIds());
         }
 
         //adding the user itself to all connected users in case they had no channels
@@ -443,7 +502,8 @@ public class ServerModel {
         ChannelInfo newChannel = new ChannelInfo(ownerId, ownerName, channelName, channelUsers);
 
         //adding channel to our list of channels
-        channels.add(newChannel);
+        channels.put(channelName, newChannel);
+        getUser(ownerId).addChannel(channelName);
 
 
         return ResponseSet.singleMessage(Response.okay(ownerId, ownerName, createCommand));
@@ -480,15 +540,15 @@ public class ServerModel {
         String name = getNickname(userId);
         String channelName = joinCommand.getChannel();
 
-        if (!channelExists(channelName)) {
+        ChannelInfo channel = findChannel(channelName);
+        if (channel == null) {
             return ResponseSet.singleMessage(
                     Response.error(joinCommand, ErrorCode.NO_SUCH_CHANNEL));
         }
 
-        ChannelInfo channel = getChannel(channelName);
-
         //adding the user to channel
         channel.addUser(userId, getNickname(userId));
+        getUser(userId).addChannel(channelName);
 
 
         //need to add response for every person in the channel
@@ -502,25 +562,57 @@ public class ServerModel {
     /**
      * Helper for {@link #leaveChannel(LeaveCommand)} and other methods requiring channel lookup.
      *
-     * Retrieves a {@link ChannelInfo} object by its name from the list of channels.
+     * Retrieves a {@link ChannelInfo} object by its name from the channel index.
      *
      * @param name The name of the channel to retrieve.
      * @return The {@link ChannelInfo} object with the specified name.
      * @throws IllegalArgumentException if no channel with the specified name is found.
      */
     private ChannelInfo getChannel(String name) {
-        for (ChannelInfo channel: channels) {
-            if (channel.getChannelName().equals(name)) {
-                return channel;
+        ChannelInfo channel = findChannel(name);
+        if (channel == null) {
+            throw new IllegalArgumentException("Unknown channel: " + name);
+        }
+        return channel;
+    }
+
+    /**
+     * Helper for the command handlers, which report a missing channel as
+     * {@link ErrorCode#NO_SUCH_CHANNEL} rather than by throwing.
+     *
+     * @param name The name of the channel to retrieve.
+     * @return The {@link ChannelInfo} object with the specified name, or null
+     *         if there is no such channel.
+     */
+    private ChannelInfo findChannel(String name) {
+        return name == null ? null : channels.get(name);
+    }
+
+    /**
+     * Helper for {@link #leaveChannel(LeaveCommand)} and
+     * {@link #deregisterUser(int)}.
+     *
+     * Deletes a channel from the channel index and from the channel list of
+     * every user still in it.
+     *
+     * @param channel The {@link ChannelInfo} object of the channel to delete.
+     */
+    private void removeChannel(ChannelInfo channel) {
+        String channelName = channel.getChannelName();
+        channels.remove(channelName);
+        for (int memberId : channel.getUserIds()) {
+            UserInfo member = users.get(memberId);
+            if (member != null) {
+                member.removeChannel(channelName);
             }
         }
-        throw new IllegalArgumentException("Unknown channel: " + name);
     }
 
     /**
      * Helper for broadcasting a response to all users in the specified channel.
      *
-     * Creates a {@link ResponseSet} containing an "okay" response for every user in the channel.
+     * Creates a {@link ResponseSet} containing an "okay" {@link Broadcast} to every user in the
+     * channel, so the message text is built only once.
      *
      * @param channel The {@link ChannelInfo} object representing the channel.
      * @param senderName The name of the sender.
@@ -530,18 +622,15 @@ public class ServerModel {
     private ResponseSet sendResponseToEveryone(ChannelInfo channel, String senderName,
                                                Command command) {
         ResponseSet responses = new ResponseSet();
-        Collection<Integer> userIds = channel.getUserIds();
-        for (Integer userId: userIds) {
-            responses.addMessage(Response.okay(userId, senderName, command));
-        }
+        responses.addBroadcast(Broadcast.okay(channel.getUserIdsView(), senderName, command));
         return responses;
     }
 
     /**
      * Helper for broadcasting a response to a custom set of user IDs.
      *
-     * Creates a {@link ResponseSet} containing an "okay" response
-     * for each user in user IDs collection.
+     * Creates a {@link ResponseSet} containing an "okay" {@link Broadcast}
+     * to the users in user IDs collection.
      *
      * @param userIds A collection of user IDs to whom the response will be sent.
      * @param senderName The name of the sender.
@@ -551,15 +640,12 @@ public class ServerModel {
     private ResponseSet sendResponseToEveryone(Collection<Integer> userIds, String senderName,
                                                Command command) {
         ResponseSet responses = new ResponseSet();
-        for (Integer userId: userIds) {
-            responses.addMessage(Response.okay(userId, senderName, command));
-        }
+        responses.addBroadcast(Broadcast.okay(userIds, senderName, command));
         return responses;
     }
 
     /**
-     * Helper for {@link #joinChannel(JoinCommand)}, {@link #sendMessage(MessageCommand)},
-     * and {@link #leaveChannel(LeaveCommand)}.
+     * Helper for {@link #createChannel(CreateCommand)}.
      *
      * Determines if a channel with the specified name exists.
      *
@@ -567,12 +653,7 @@ public class ServerModel {
      * @return {@code true} if the channel exists; {@code false} otherwise.
      */
     private boolean channelExists(String name) {
-        for (ChannelInfo channel: channels) {
-            if ((channel.getChannelName()).equals(name)) {
-                return true;
-            }
-        }
-        return false;
+        return name != null && channels.containsKey(name);
     }
 
     /**
@@ -598,12 +679,11 @@ public class ServerModel {
         String channelName = messageCommand.getChannel();
 
         //making sure channel exists
-        if (!channelExists(channelName)) {
+        ChannelInfo channel = findChannel(channelName);
+        if (channel == null) {
             return ResponseSet.singleMessage(
                     Response.error(messageCommand, ErrorCode.NO_SUCH_CHANNEL));
         }
-
-        ChannelInfo channel = getChannel(channelName);
         //making sure user is in channel
         if (!channel.userInChannel(userId)) {
             return ResponseSet.singleMessage(
@@ -638,13 +718,12 @@ public class ServerModel {
         String name = getNickname(userId);
 
         //making sure channel exists
-        if (!channelExists(channelName)) {
+        ChannelInfo channel = findChannel(channelName);
+        if (channel == null) {
             return ResponseSet.singleMessage(
                     Response.error(leaveCommand, ErrorCode.NO_SUCH_CHANNEL));
         }
 
-        ChannelInfo channel = getChannel(channelName);
-
         //making sure user is not in channel
         if (!channel.userInChannel(userId)) {
             return ResponseSet.singleMessage(
@@ -653,10 +732,11 @@ public class ServerModel {
 
         //removing the user
         channel.deleteUser(userId);
+        getUser(userId).removeChannel(channelName);
 
         //deleting channel if no users left
         if (channel.getUserIds().isEmpty()) {
-            channels.remove(channel);
+            channels.remove(channelName);
             //still returning a response to that user who left
             return ResponseSet.singleMessage(Response.okay(userId, name, leaveCommand));
         }
@@ -668,8 +748,8 @@ public class ServerModel {
 
         //deleting the channel if the owner leaves,
         //but it should still send the leave command to everyone
-        if (getOwner(channelName).equals(name)) {
-            channels.remove(channel);
+        if (channel.getOwnerID() == userId) {
+            removeChannel(channel);
         }
         return sendResponseToEveryone(orgUserIds, name, leaveCommand);
     }
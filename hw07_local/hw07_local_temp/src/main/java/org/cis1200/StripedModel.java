@@ -0,0 +1,237 @@
+package org.cis1200;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A {@code StripedModel} lets any number of threads run commands on one
+ * {@link ServerModel} at once, so that the thread that reads a command can
+ * also run it instead of handing it to a model thread.
+ *
+ * The locks are striped: a fixed array of locks, with every channel and
+ * every user mapped to one of them by hash. A command holds the stripe of
+ * each channel and each user it reads or changes, and the nickname lock if
+ * it changes or depends on who has which nickname:
+ *
+ * <pre>
+ *   CREATE, JOIN, MESG, LEAVE   its channel, the sender
+ *   INVITE, KICK                its channel, the sender, nicknames
+ *   NICK, disconnection         every channel of the sender, the sender, nicknames
+ *   registration                the new user, nicknames
+ * </pre>
+ *
+ * Stripes are always taken in increasing order and the nickname lock last,
+ * so two commands can never deadlock. Commands that hold no lock in common
+ * touch disjoint parts of the model, and give the same responses in either
+ * order.
+ *
+ * A user's channels can change between looking them up and locking them.
+ * Joining a channel needs the user's own stripe and being invited needs the
+ * nickname lock, so once those are held the user's channels can only
+ * shrink; if they grew in the meantime, the locks are dropped and taken
+ * again.
+ *
+ * Responses are handed to a sink while the locks are still held, so that
+ * the responses about any one channel leave in the order the model
+ * produced them.
+ */
+final class StripedModel {
+    private final ServerModel model;
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    private final ReentrantLock nicknameLock = new ReentrantLock();
+
+    /**
+     * @param model   the model; from now on only this object may touch it
+     * @param stripes the number of stripes, rounded up to a power of two
+     */
+    StripedModel(ServerModel model, int stripes) {
+        if (stripes < 1 || stripes > 1 << 16) {
+            throw new IllegalArgumentException("stripes must be between 1 and 65536");
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+        this.model = model;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /** @return the number of stripes */
+    int stripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Registers a new user.
+     *
+     * @param userId the new user's id
+     * @param sink   receives the responses, with the locks held
+     */
+    void register(int userId, Consumer<ResponseSet> sink) {
+        int[] held = { userStripe(userId) };
+        lock(held, true);
+        try {
+            sink.accept(model.registerUser(userId));
+        } finally {
+            unlock(held, true);
+        }
+    }
+
+    /**
+     * Deregisters a user, if still registered.
+     *
+     * @param userId the departing user's id
+     * @param sink   receives the responses, with the locks held
+     */
+    void deregister(int userId, Consumer<ResponseSet> sink) {
+        int[] held = lockUserAndChannels(userId);
+        if (held == null) {
+            return;
+        }
+        try {
+            sink.accept(model.deregisterUser(userId));
+        } finally {
+            unlock(held, true);
+        }
+    }
+
+    /**
+     * Runs a command. A command from a sender who is no longer registered is
+     * ignored, as it would be by the model thread.
+     *
+     * @param command a command that passed {@link Command#validate()}
+     * @param sink    receives the responses, with the locks held
+     */
+    void execute(Command command, Consumer<ResponseSet> sink) {
+        int senderId = command.getSenderId();
+        String channel = command.getChannel();
+        if (channel == null) {
+            // NICK renames the sender in every channel they are in
+            int[] held = lockUserAndChannels(senderId);
+            if (held == null) {
+                return;
+            }
+            try {
+                sink.accept(command.updateServerModel(model));
+            } finally {
+                unlock(held, true);
+            }
+            return;
+        }
+
+        int[] held = sorted(channelStripe(channel), userStripe(senderId));
+        boolean nicknames = command.namesOtherUser();
+        lock(held, nicknames);
+        try {
+            if (model.existingUserId(senderId)) {
+                sink.accept(command.updateServerModel(model));
+            }
+        } finally {
+            unlock(held, nicknames);
+        }
+    }
+
+    /*
+     * Locks a user's stripe, the stripes of all of their channels and the
+     * nickname lock.
+     *
+     * Returns the stripes held, or null (holding nothing) if the user is not
+     * registered.
+     */
+    private int[] lockUserAndChannels(int userId) {
+        while (true) {
+            Set<String> channels = model.findChannelsOf(userId);
+            if (channels == null) {
+                return null;
+            }
+            int[] held = sorted(stripesOf(userId, channels));
+            lock(held, true);
+            Set<String> now = model.findChannelsOf(userId);
+            if (now == null) {
+                unlock(held, true);
+                return null;
+            }
+            if (covers(held, now)) {
+                return held;
+            }
+            // The user joined a channel on a stripe we do not hold yet
+            unlock(held, true);
+        }
+    }
+
+    private int[] stripesOf(int userId, Set<String> channels) {
+        int[] indices = new int[channels.size() + 1];
+        int count = 0;
+        indices[count++] = userStripe(userId);
+        for (String channel : channels) {
+            if (count == indices.length) {
+                // The set grew while we were copying it
+                indices = Arrays.copyOf(indices, count * 2);
+            }
+            indices[count++] = channelStripe(channel);
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    private boolean covers(int[] held, Set<String> channels) {
+        for (String channel : channels) {
+            if (Arrays.binarySearch(held, channelStripe(channel)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int channelStripe(String channel) {
+        int h = channel.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int userStripe(int userId) {
+        // Consecutive ids spread over the stripes rather than filling them in order
+        int h = userId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int[] sorted(int... indices) {
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    // ==========================================================================
+    // Locking in order
+    // ==========================================================================
+
+    /*
+     * Locks each distinct stripe in increasing order, then the nickname lock
+     * if asked to. The stripe indices must be sorted.
+     */
+    private void lock(int[] held, boolean nicknames) {
+        for (int i = 0; i < held.length; i++) {
+            if (i == 0 || held[i] != held[i - 1]) {
+                stripes[held[i]].lock();
+            }
+        }
+        if (nicknames) {
+            nicknameLock.lock();
+        }
+    }
+
+    private void unlock(int[] held, boolean nicknames) {
+        if (nicknames) {
+            nicknameLock.unlock();
+        }
+        for (int i = held.length - 1; i >= 0; i--) {
+            if (i == 0 || held[i] != held[i - 1]) {
+                stripes[held[i]].unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.cis1200;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@code TaskQueue} carries work from any number of producer threads to a
+ * single consumer, the model thread. The consumer takes tasks in batches
+ * with {@link #take(Collection, int)}, so it pays for a wakeup at most once
+ * per batch rather than once per task.
+ *
+ * @param <T> the type of the tasks
+ */
+interface TaskQueue<T> {
+
+    /**
+     * How a thread waits for the queue: the consumer for tasks to arrive, and
+     * with a bounded queue, a producer for room.
+     */
+    enum WaitStrategy {
+        /** Park the thread until it is woken. Cheapest on CPU. */
+        BLOCK,
+        /** Yield the processor between checks. */
+        YIELD,
+        /**
+         * Busy-spin between checks, then yield, then park for gradually
+         * longer. Lowest latency while busy; burns a core while idle.
+         */
+        SPIN;
+
+        private static final int SPINS = 1000;
+        private static final int YIELDS = 100;
+        private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+        /**
+         * Waits a little before the caller checks its condition again.
+         *
+         * @param attempt how many times the caller has waited so far for
+         *                the same condition, starting at 0
+         */
+        void idle(int attempt) {
+            switch (this) {
+                case BLOCK:
+                    // Producers wake a blocked consumer; the timeout only
+                    // bounds the wait of a producer waiting for room
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                    break;
+                case YIELD:
+                    Thread.yield();
+                    break;
+                default:
+                    if (attempt < SPINS) {
+                        Thread.onSpinWait();
+                    } else if (attempt < SPINS + YIELDS) {
+                        Thread.yield();
+                    } else {
+                        long nanos = 1000L << Math.min(10, (attempt - SPINS - YIELDS) / 16);
+                        LockSupport.parkNanos(this, Math.min(nanos, MAX_PARK_NANOS));
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adds a task. May be called from any thread but the consumer's: a
+     * bounded queue makes the caller wait for room rather than drop the task,
+     * and only the consumer can make room.
+     *
+     * @param task the task to add
+     */
+    void add(T task);
+
+    /**
+     * Removes up to {@code max} tasks in the order they were added, waiting
+     * until there is at least one. Only the consumer thread may call this.
+     *
+     * @param batch where to put the tasks
+     * @param max   the most tasks to take
+     * @return the number of tasks taken, at least 1
+     * @throws InterruptedException if the consumer is interrupted while
+     *                              waiting
+     */
+    int take(Collection<? super T> batch, int max) throws InterruptedException;
+
+    /** @return the number of tasks waiting; only an estimate while in use */
+    int size();
+
+    /** @return whether no tasks are waiting */
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,79 @@
+package org.cis1200;
+
+/**
+ * A {@code TokenBucket} allows events at a steady rate, with bursts of up to
+ * a fixed number of events after a quiet spell.
+ *
+ * Rather than a count of tokens refilled by a timer, the bucket keeps a
+ * single number: the time at which it would be completely full again if
+ * nothing else happened. Each event pushes that time one interval further
+ * into the future, and an event is allowed as long as the time is no more
+ * than {@code burst} intervals away.
+ *
+ * Times are {@link System#nanoTime()} values. The methods are synchronized,
+ * since a channel's bucket is shared by all its members' threads.
+ */
+final class TokenBucket {
+    private final long interval; // nanoseconds per token
+    private final long window;   // nanoseconds of credit in a full bucket
+
+    private long fullAt;
+
+    /**
+     * @param ratePerSecond the steady rate of events allowed
+     * @param burst         the most events allowed at once
+     * @param now           the current time; the bucket starts full
+     */
+    TokenBucket(double ratePerSecond, int burst, long now) {
+        if (!(ratePerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("rate and burst must be positive");
+        }
+        this.interval = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+        this.window = interval * burst;
+        this.fullAt = now;
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param now the current time
+     * @return whether the event is allowed
+     */
+    synchronized boolean tryAcquire(long now) {
+        long next = Math.max(fullAt, now) + interval;
+        if (next - now > window) {
+            return false;
+        }
+        fullAt = next;
+        return true;
+    }
+
+    /**
+     * Takes a token, waiting for one if need be.
+     *
+     * @param now      the current time
+     * @param maxDelay the longest the caller is prepared to wait, in
+     *                 nanoseconds
+     * @return how long to wait before the event, in nanoseconds: 0 to go
+     *         ahead now, or -1, taking nothing, if the wait would be longer
+     *         than {@code maxDelay}
+     */
+    synchronized long reserve(long now, long maxDelay) {
+        long next = Math.max(fullAt, now) + interval;
+        long wait = Math.max(0, next - now - window);
+        if (wait > maxDelay) {
+            return -1;
+        }
+        fullAt = next;
+        return wait;
+    }
+
+    /**
+     * @param now the current time
+     * @return whether the bucket is full, so that forgetting it and later
+     *         starting a new one changes nothing
+     */
+    synchronized boolean isFull(long now) {
+        return fullAt - now <= 0;
+    }
+}
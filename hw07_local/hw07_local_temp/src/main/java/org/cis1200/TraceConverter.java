@@ -0,0 +1,189 @@
+package org.cis1200;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code TraceConverter} turns the lines written by a {@link Tracer} into
+ * the Chrome trace event format, which Perfetto ({@code ui.perfetto.dev})
+ * and {@code chrome://tracing} can open:
+ *
+ * <pre>
+ *   java -cp target/classes org.cis1200.TraceConverter traces.log trace.json
+ * </pre>
+ *
+ * Each trace gets a row of its own, named after the command, its sender
+ * and its channel. In that row one span covers the whole trace, with the
+ * stages inside it one after another: {@code parse} (read to queued),
+ * {@code queued}, {@code model}, and then, all starting where the model
+ * finished, {@code dispatch} and one {@code write to user N} per recipient.
+ * Lines that are not traces are skipped.
+ */
+public final class TraceConverter {
+
+    /**
+     * Entry point for the converter
+     *
+     * @param args the trace file, and the JSON file to write (by default,
+     *             standard output)
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: TraceConverter traces.log [trace.json]");
+            System.exit(2);
+        }
+        List<String> lines = Files.readAllLines(Path.of(args[0]), StandardCharsets.UTF_8);
+        String json = convert(lines);
+        if (args.length == 2) {
+            Files.writeString(Path.of(args[1]), json, StandardCharsets.UTF_8);
+        } else {
+            PrintStream out = new PrintStream(System.out, true, StandardCharsets.UTF_8);
+            out.print(json);
+        }
+    }
+
+    /**
+     * Converts trace lines.
+     *
+     * @param lines lines in the {@link Tracer} format
+     * @return a Chrome trace, as JSON
+     */
+    static String convert(Iterable<String> lines) {
+        List<String> events = new ArrayList<>();
+        for (String line : lines) {
+            try {
+                addEvents(line.trim(), events);
+            } catch (RuntimeException rx) {
+                // not a trace, e.g. a note that the buffer was full
+            }
+        }
+        StringBuilder json = new StringBuilder("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[\n");
+        for (int i = 0; i < events.size(); i++) {
+            json.append(events.get(i)).append(i + 1 < events.size() ? ",\n" : "\n");
+        }
+        return json.append("]}\n").toString();
+    }
+
+    /*
+     * Parses "id startMicros user kind channel q= d= m= s= w=... [incomplete]"
+     * and adds its events, all or none.
+     */
+    private static void addEvents(String line, List<String> events) {
+        String[] fields = line.split(" ");
+        if (fields.length < 10) {
+            throw new IllegalArgumentException("not a trace");
+        }
+        long id = Long.parseLong(fields[0]);
+        long start = Long.parseLong(fields[1]);
+        String user = String.valueOf(Long.parseLong(fields[2]));
+        String kind = fields[3];
+        String channel = fields[4];
+        long queued = stage(fields[5], "q=");
+        long dequeued = stage(fields[6], "d=");
+        long modelDone = stage(fields[7], "m=");
+        long dispatched = stage(fields[8], "s=");
+        List<long[]> writes = new ArrayList<>();
+        String deliveries = field(fields[9], "w=");
+        if (!deliveries.isEmpty()) {
+            for (String delivery : deliveries.split(",")) {
+                int at = delivery.indexOf('@');
+                writes.add(new long[] {
+                        Long.parseLong(delivery.substring(0, at)),
+                        Long.parseLong(delivery.substring(at + 1))
+                });
+            }
+        }
+        boolean incomplete = fields.length > 10 && fields[10].equals("incomplete");
+
+        List<String> mine = new ArrayList<>();
+        String name = kind + " from user " + user + (channel.equals("-") ? "" : " in " + channel);
+        mine.add(String.format(
+                "{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":%d,"
+                        + "\"args\":{\"name\":\"#%d %s\"}}",
+                id, id, escape(name)
+        ));
+        long end = Math.max(dispatched, modelDone);
+        for (long[] write : writes) {
+            end = Math.max(end, write[1]);
+        }
+        String args = String.format(
+                "{\"user\":%s,\"channel\":\"%s\",\"incomplete\":%b}", user, escape(channel), incomplete
+        );
+        mine.add(span(id, escape(kind), start, 0, end, args));
+        if (queued >= 0) {
+            mine.add(span(id, "parse", start, 0, queued, null));
+        }
+        if (queued >= 0 && dequeued >= 0) {
+            mine.add(span(id, "queued", start, queued, dequeued, null));
+        }
+        if (dequeued >= 0 && modelDone >= 0) {
+            mine.add(span(id, "model", start, dequeued, modelDone, null));
+        }
+        if (modelDone >= 0) {
+            // Spans that start together must be listed longest first to nest
+            List<long[]> after = new ArrayList<>();
+            if (dispatched >= 0) {
+                after.add(new long[] { -1, dispatched });
+            }
+            after.addAll(writes);
+            after.sort((a, b) -> Long.compare(b[1], a[1]));
+            for (long[] span : after) {
+                String spanName = span[0] < 0 ? "dispatch" : "write to user " + span[0];
+                mine.add(span(id, spanName, start, modelDone, span[1], null));
+            }
+        }
+        events.addAll(mine);
+    }
+
+    private static String span(long tid, String name, long startMicros, long from, long to,
+                               String args) {
+        return String.format(
+                "{\"ph\":\"X\",\"name\":\"%s\",\"pid\":1,\"tid\":%d,\"ts\":%s,\"dur\":%s%s}",
+                name, tid, micros(startMicros, from), micros(0, Math.max(0, to - from)),
+                args == null ? "" : ",\"args\":" + args
+        );
+    }
+
+    /*
+     * Formats microseconds plus nanoseconds exactly; a double would lose the
+     * nanoseconds next to a time since the epoch.
+     */
+    private static String micros(long micros, long nanos) {
+        return String.format("%d.%03d", micros + nanos / 1000, nanos % 1000);
+    }
+
+    private static long stage(String field, String key) {
+        return Long.parseLong(field(field, key));
+    }
+
+    private static String field(String field, String key) {
+        if (!field.startsWith(key)) {
+            throw new IllegalArgumentException("expected " + key);
+        }
+        return field.substring(key.length());
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    // Prevent the instantiation of TraceConverter objects
+    private TraceConverter() {
+    }
+}
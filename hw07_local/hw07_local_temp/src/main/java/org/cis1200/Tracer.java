@@ -0,0 +1,300 @@
+package org.cis1200;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@code Tracer} follows a sample of client commands through every stage
+ * of the server, to show where the time goes when one is slow:
+ *
+ * <pre>
+ *   read        the line was read from the socket
+ *   q           the command was queued for a model thread (after parsing,
+ *               checking and rate limiting)
+ *   d           a model thread took it off the queue
+ *   m           the model was done with it
+ *   s           its responses were all handed to the outbound queues
+ *   w           each recipient's response was written to its socket
+ * </pre>
+ *
+ * With {@code execution=inline} there is no queue, so {@code q} and
+ * {@code d} are both when the command started to run.
+ *
+ * Each trace that is done is written as one line, after the last write or
+ * once {@link #TIMEOUT_SECONDS} have passed (a recipient may have
+ * disconnected, or had its response dropped), in which case the line ends
+ * with {@code incomplete}:
+ *
+ * <pre>
+ *   id startMicros user kind channel q=ns d=ns m=ns s=ns w=user@ns,user@ns...
+ *   17 1697040000123456 3 MessageCommand java q=3100 d=5200 m=6100 s=7000 w=3@18000,4@19500
+ * </pre>
+ *
+ * {@code startMicros} is the wall-clock time of the read in microseconds
+ * since the epoch; every other time is in nanoseconds after the read, or -1
+ * for a stage never reached. A channel of {@code -} means the command is
+ * about none. A command that is refused before it is queued, such as a
+ * malformed or rate-limited one, is not traced at all. {@link
+ * TraceConverter} turns a file of these lines into Chrome-trace JSON for
+ * Perfetto or {@code chrome://tracing}.
+ *
+ * Lines are written by an {@link AsyncLog} of their own, so that neither
+ * formatting nor the file slows down the threads being traced.
+ */
+final class Tracer {
+    static final long TIMEOUT_SECONDS = 10;
+
+    private final int sampling;
+    private final String file;
+    private final long timeoutNanos = TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+
+    // Converts System.nanoTime() values to wall-clock time
+    private final long baseNanos = System.nanoTime();
+    private final long baseMicros = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final LongAdder finished = new LongAdder();
+
+    // The lines each trace's recipients were sent, compared by identity
+    private final Map<byte[], Trace> watched = new ConcurrentHashMap<>();
+
+    private PrintStream stream;
+    private AsyncLog out;
+
+    /**
+     * @param sampling trace one in this many commands
+     * @param file     where to append the traces
+     */
+    Tracer(int sampling, String file) {
+        if (sampling < 1) {
+            throw new IllegalArgumentException("sampling rate must be positive");
+        }
+        this.sampling = sampling;
+        this.file = file;
+    }
+
+    /**
+     * Opens the file and starts writing traces to it.
+     *
+     * @throws IOException if the file cannot be opened
+     */
+    void start() throws IOException {
+        start(new PrintStream(new FileOutputStream(file, true), false, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Starts writing traces to a stream.
+     *
+     * @param stream where to write; closed by {@link #close()}
+     */
+    void start(PrintStream stream) {
+        this.stream = stream;
+        out = new AsyncLog(stream, 8192);
+        out.start();
+    }
+
+    /** Writes the traces still buffered and closes the file. */
+    void close() {
+        if (out != null) {
+            out.close();
+            stream.close();
+        }
+    }
+
+    /** @return the number of traces written so far */
+    long getFinished() {
+        return finished.sum();
+    }
+
+    /**
+     * Decides whether to trace the line just read.
+     *
+     * @param userId the client that sent it
+     * @param readAt when it was read
+     * @return a new trace, or null (nearly always) if the line is not sampled
+     */
+    Trace sample(int userId, long readAt) {
+        if (out == null || ThreadLocalRandom.current().nextInt(sampling) != 0) {
+            return null;
+        }
+        expire(readAt);
+        return new Trace(nextId.incrementAndGet(), userId, readAt);
+    }
+
+    /*
+     * Gives up on traces still waiting for writes that will never happen.
+     * Only runs when a new trace starts, which is rare.
+     */
+    private void expire(long now) {
+        for (Trace trace : watched.values()) {
+            if (now - trace.readAt > timeoutNanos) {
+                finish(trace, true);
+            }
+        }
+    }
+
+    /**
+     * @return whether any line being written could belong to a trace; the
+     *         writers check this before looking a line up
+     */
+    boolean isWatching() {
+        return !watched.isEmpty();
+    }
+
+    /**
+     * Records that a line has been written to a client's socket. Called by
+     * the writers for every line written while {@link #isWatching()}.
+     *
+     * @param line      the encoded line, as queued
+     * @param userId    the client it was written to
+     * @param writtenAt when the write finished
+     */
+    void written(byte[] line, int userId, long writtenAt) {
+        Trace trace = watched.get(line);
+        if (trace != null) {
+            trace.delivered(userId, writtenAt);
+            if (trace.pending.decrementAndGet() == 0) {
+                finish(trace, false);
+            }
+        }
+    }
+
+    private void finish(Trace trace, boolean incomplete) {
+        if (!trace.finished.compareAndSet(false, true)) {
+            return;
+        }
+        for (byte[] line : trace.lines) {
+            watched.remove(line);
+        }
+        trace.incomplete = incomplete;
+        finished.increment();
+        out.log(AsyncLog.Category.SERVER, AsyncLog.Level.WARN, "%s\n", trace);
+    }
+
+    /**
+     * One traced command. Each stage is stamped by the thread that reached
+     * it, and handed on to the next with the command itself.
+     */
+    final class Trace {
+        private final long id;
+        private final int userId;
+        private final long readAt;
+        private volatile String kind = "-";
+        private volatile String channel;
+        private volatile long queuedAt;
+        private volatile long dequeuedAt;
+        private volatile long modelDoneAt;
+        private volatile long dispatchedAt;
+
+        private final List<byte[]> lines = new CopyOnWriteArrayList<>();
+        private final List<long[]> deliveries = new ArrayList<>();  // guarded by itself
+        private final AtomicInteger pending = new AtomicInteger(1); // writes, and dispatch
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean incomplete;
+
+        private Trace(long id, int userId, long readAt) {
+            this.id = id;
+            this.userId = userId;
+            this.readAt = readAt;
+        }
+
+        /** Names the command, once the line has been parsed. */
+        void parsed(Command command) {
+            kind = command.getClass().getSimpleName();
+            channel = command.getChannel();
+        }
+
+        void queued(long now) {
+            queuedAt = now;
+        }
+
+        void dequeued(long now) {
+            dequeuedAt = now;
+        }
+
+        void modelDone(long now) {
+            modelDoneAt = now;
+        }
+
+        /**
+         * Watches for the writes of a line before it is queued for its
+         * recipients, since a writer may finish with it at once.
+         *
+         * @param line       the encoded line
+         * @param recipients how many clients it is to be queued for
+         */
+        void sending(byte[] line, int recipients) {
+            if (recipients > 0) {
+                lines.add(line);
+                pending.addAndGet(recipients);
+                watched.put(line, this);
+            }
+        }
+
+        /** Stops waiting for one write of a line whose recipient has left. */
+        void notSent() {
+            pending.decrementAndGet();
+        }
+
+        /** Records that every response has been handed to the outbound queues. */
+        void dispatched(long now) {
+            dispatchedAt = now;
+            if (pending.decrementAndGet() == 0) {
+                finish(this, false);
+            }
+        }
+
+        private void delivered(int recipientId, long now) {
+            synchronized (deliveries) {
+                deliveries.add(new long[] { recipientId, now });
+            }
+        }
+
+        private long since(long time) {
+            return time == 0 ? -1 : time - readAt;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder line = new StringBuilder()
+                    .append(id).append(' ')
+                    .append(baseMicros + (readAt - baseNanos) / 1000).append(' ')
+                    .append(userId).append(' ')
+                    .append(kind).append(' ')
+                    .append(channel == null ? "-" : channel)
+                    .append(" q=").append(since(queuedAt))
+                    .append(" d=").append(since(dequeuedAt))
+                    .append(" m=").append(since(modelDoneAt))
+                    .append(" s=").append(since(dispatchedAt))
+                    .append(" w=");
+            synchronized (deliveries) {
+                for (int i = 0; i < deliveries.size(); i++) {
+                    long[] delivery = deliveries.get(i);
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    line.append(delivery[0]).append('@').append(since(delivery[1]));
+                }
+            }
+            if (incomplete) {
+                line.append(" incomplete");
+            }
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.cis1200;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class UserInfo {
+    //attributes
+    private final int userId;
+    private volatile String nickname;
+    //names of the channels this user is a member of; commands about
+    //different channels may update it at the same time
+    private final Set<String> channels;
+
+    /**
+     * Constructs a new UserInfo object for a registered user.
+     *
+     * @param userId The ID of the user, assigned by the backend.
+     * @param nickname The current nickname of the user.
+     */
+    public UserInfo(int userId, String nickname) {
+        this.userId = userId;
+        this.nickname = nickname;
+        this.channels = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Gets the ID of the user.
+     *
+     * @return The ID of the user.
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets the current nickname of the user.
+     *
+     * @return The nickname of the user.
+     */
+    public String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * Updates the nickname of the user.
+     *
+     * @param nickname The new nickname for the user.
+     */
+    public void setNickname(String nickname) {
+        this.nickname = nickname;
+    }
+
+    /**
+     * Gets the names of the channels this user is a member of.
+     *
+     * @return An unmodifiable view of the user's channel names.
+     */
+    public Set<String> getChannels() {
+        return Collections.unmodifiableSet(channels);
+    }
+
+    /**
+     * Records that the user became a member of a channel.
+     *
+     * @param channelName The name of the channel the user joined.
+     */
+    public void addChannel(String channelName) {
+        channels.add(channelName);
+    }
+
+    /**
+     * Records that the user is no longer a member of a channel.
+     *
+     * @param channelName The name of the channel the user left.
+     */
+    public void removeChannel(String channelName) {
+        channels.remove(channelName);
+    }
+}
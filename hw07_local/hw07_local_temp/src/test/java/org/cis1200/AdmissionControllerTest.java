@@ -0,0 +1,147 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+public class AdmissionControllerTest {
+    private static final long MILLI = 1_000_000L;
+
+    private static AsyncLog log() {
+        return new AsyncLog(new PrintStream(new ByteArrayOutputStream()), 16);
+    }
+
+    private static Command mesg(int sender) {
+        return new MessageCommand(sender, "java", "hi");
+    }
+
+    @Test
+    public void testShedsHeaviestSenderAboveHighWatermark() {
+        AdmissionController admission = new AdmissionController(4, 1, 0, log());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(admission.admit(mesg(0)));
+        }
+        assertTrue(admission.admit(mesg(1)));
+        assertEquals(4, admission.getDepth());
+        assertFalse(admission.isShedding());
+
+        // The next arrival finds the queue at the high watermark
+        assertFalse(admission.admit(mesg(0)), "heavy sender is shed");
+        assertTrue(admission.isShedding());
+        assertTrue(admission.admit(mesg(2)), "idle sender is not");
+        assertTrue(admission.admit(new JoinCommand(0, "java")), "only messages are shed");
+        assertEquals(1, admission.getShed());
+        assertEquals(1, admission.getSheddingEpisodes());
+    }
+
+    @Test
+    public void testStopsSheddingAtLowWatermark() {
+        AdmissionController admission = new AdmissionController(3, 1, 0, log());
+        Command first = mesg(0);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(admission.admit(first));
+        }
+        assertFalse(admission.admit(mesg(0)));
+        assertTrue(admission.started(first, 0));
+        assertTrue(admission.isShedding(), "two queued is still above the low watermark");
+        assertTrue(admission.started(first, 0));
+        assertFalse(admission.isShedding(), "one queued is at the low watermark");
+        assertTrue(admission.admit(mesg(0)));
+        assertEquals(3, admission.getMaxDepth());
+    }
+
+    @Test
+    public void testMessagesThatWaitTooLongExpire() {
+        AdmissionController admission = new AdmissionController(0, 0, 10 * MILLI, log());
+        Command join = new JoinCommand(0, "java");
+        assertTrue(admission.admit(mesg(0)));
+        assertTrue(admission.admit(join));
+        assertTrue(admission.admit(mesg(1)));
+        assertFalse(admission.started(mesg(0), 11 * MILLI), "stale message is dropped");
+        assertTrue(admission.started(join, 11 * MILLI), "other commands still run");
+        assertEquals(1, admission.getExpired());
+        assertEquals(11 * MILLI, admission.getLastWaitNanos());
+
+        // Long waits alone are overload, until waits are short again
+        assertFalse(admission.admit(mesg(1)));
+        assertTrue(admission.isShedding());
+        assertTrue(admission.started(mesg(1), MILLI));
+        assertTrue(admission.admit(mesg(1)));
+        assertFalse(admission.isShedding());
+    }
+
+    @Test
+    public void testForgottenSenderLeavesTheTotal() {
+        AdmissionController admission = new AdmissionController(2, 0, 0, log());
+        Command command = mesg(0);
+        assertTrue(admission.admit(command));
+        admission.forget(0);
+        assertTrue(admission.started(command, 0));
+        assertEquals(0, admission.getDepth());
+    }
+
+    @Test
+    public void testForgetRacingWithModelThread() throws Exception {
+        AdmissionController admission = new AdmissionController(0, 0, 0, log());
+        int clients = 100_000;
+        Command[] queued = new Command[clients];
+        for (int i = 0; i < clients; i++) {
+            queued[i] = mesg(i);
+            assertTrue(admission.admit(queued[i]));
+        }
+        // The model thread takes each client's last command while the client
+        // disconnects, and another of its commands arrives late
+        Thread model = new Thread(() -> {
+            for (Command command : queued) {
+                admission.started(command, 0);
+            }
+        });
+        Thread disconnects = new Thread(() -> {
+            for (int i = 0; i < clients; i++) {
+                admission.forget(i);
+                admission.admit(mesg(i));
+            }
+        });
+        model.start();
+        disconnects.start();
+        model.join();
+        disconnects.join();
+        assertEquals(clients, admission.getDepth(), "the late commands");
+        for (int i = 0; i < clients; i++) {
+            admission.started(mesg(i), 0);
+        }
+        assertEquals(0, admission.getDepth());
+        assertEquals(0, admission.getSenders(), "no sender counted twice or left behind");
+    }
+
+    @Test
+    public void testMaxDepthKeepsEveryPeak() throws Exception {
+        AdmissionController admission = new AdmissionController(0, 0, 0, log());
+        int perThread = 100_000;
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            int sender = t;
+            readers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    admission.admit(mesg(sender));
+                }
+            });
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        // Nothing was taken, so the last admit reached the deepest queue
+        assertEquals(readers.length * perThread, admission.getMaxDepth());
+    }
+
+    @Test
+    public void testRejectsBadWatermarks() {
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController(2, 2, 0, log()));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionController(-1, 0, 0, log()));
+    }
+}
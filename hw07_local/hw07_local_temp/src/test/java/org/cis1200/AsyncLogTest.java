@@ -0,0 +1,86 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+public class AsyncLogTest {
+    private ByteArrayOutputStream bytes;
+    private PrintStream out;
+
+    @BeforeEach
+    public void setUp() {
+        bytes = new ByteArrayOutputStream();
+        out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+    }
+
+    private String written() {
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testWritesFormattedLinesInOrder() {
+        AsyncLog log = new AsyncLog(out, 16);
+        log.start();
+        log.log(AsyncLog.Category.REQUEST, AsyncLog.Level.INFO, "got %d: %s\n", 1, "NICK a");
+        log.log(AsyncLog.Category.RESPONSE, AsyncLog.Level.INFO, "sent %d\n", 2);
+        log.close();
+        assertEquals("got 1: NICK a\nsent 2\n", written());
+    }
+
+    @Test
+    public void testLevelsArePerCategory() {
+        AsyncLog log = new AsyncLog(out, 16);
+        log.setLevel(AsyncLog.Category.RESPONSE, AsyncLog.Level.OFF);
+        log.setLevel(AsyncLog.Category.SERVER, AsyncLog.Level.WARN);
+        assertTrue(log.isEnabled(AsyncLog.Category.REQUEST, AsyncLog.Level.INFO));
+        assertFalse(log.isEnabled(AsyncLog.Category.REQUEST, AsyncLog.Level.DEBUG));
+        assertFalse(log.isEnabled(AsyncLog.Category.RESPONSE, AsyncLog.Level.WARN));
+        assertTrue(log.isEnabled(AsyncLog.Category.SERVER, AsyncLog.Level.WARN));
+        assertFalse(log.isEnabled(AsyncLog.Category.SERVER, AsyncLog.Level.INFO));
+
+        log.start();
+        log.log(AsyncLog.Category.RESPONSE, AsyncLog.Level.INFO, "hidden\n", null);
+        log.log(AsyncLog.Category.SERVER, AsyncLog.Level.WARN, "shown\n", null);
+        log.close();
+        assertEquals("shown\n", written());
+    }
+
+    @Test
+    public void testSamplingLogsSomeLines() {
+        AsyncLog log = new AsyncLog(out, 1000);
+        log.setSampling(AsyncLog.Category.RESPONSE, 10);
+        for (int i = 0; i < 1000; i++) {
+            log.log(AsyncLog.Category.RESPONSE, AsyncLog.Level.INFO, "x", null);
+        }
+        log.start();
+        log.close();
+        int logged = written().length();
+        assertTrue(logged > 0 && logged < 300, "about one in ten: " + logged);
+    }
+
+    @Test
+    public void testDropsWhenFullInsteadOfWaiting() {
+        AsyncLog log = new AsyncLog(out, 2);
+        for (int i = 0; i < 5; i++) {
+            log.log(AsyncLog.Category.REQUEST, AsyncLog.Level.INFO, "%d\n", i);
+        }
+        assertEquals(3, log.getDroppedLines());
+        log.start();
+        log.close();
+        assertEquals("0\n1\nLog buffer full: 3 lines dropped\n", written());
+    }
+
+    @Test
+    public void testLinesAfterCloseAreDropped() {
+        AsyncLog log = new AsyncLog(out, 2);
+        log.start();
+        log.close();
+        log.log(AsyncLog.Category.SERVER, AsyncLog.Level.WARN, "late\n", null);
+        assertEquals(1, log.getDroppedLines());
+        assertEquals("", written());
+    }
+}
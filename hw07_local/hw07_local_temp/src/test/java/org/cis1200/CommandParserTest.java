@@ -0,0 +1,187 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+public class CommandParserTest {
+
+    @Test
+    public void testEveryVerb() {
+        assertEquals(new NicknameCommand(0, "bob"), CommandParser.parse(0, "NICK bob"));
+        assertEquals(new CreateCommand(0, "java", true), CommandParser.parse(0, "CREATE java 1"));
+        assertEquals(new CreateCommand(0, "java", false), CommandParser.parse(0, "CREATE java 0"));
+        assertEquals(new JoinCommand(0, "java"), CommandParser.parse(0, "JOIN java"));
+        assertEquals(new LeaveCommand(0, "java"), CommandParser.parse(0, "LEAVE java"));
+        assertEquals(new InviteCommand(0, "java", "bob"), CommandParser.parse(0, "INVITE java bob"));
+        assertEquals(new KickCommand(0, "java", "bob"), CommandParser.parse(0, "KICK java bob"));
+        assertEquals(
+                new MessageCommand(0, "java", "hi :) there "),
+                CommandParser.parse(0, "MESG java :hi :) there ")
+        );
+    }
+
+    @Test
+    public void testSenderIsKept() {
+        assertEquals(7, CommandParser.parse(7, "JOIN java").getSenderId());
+    }
+
+    @Test
+    public void testBadCreateFlagIsNull() {
+        assertNull(CommandParser.parse(0, "CREATE java 2"));
+        assertNull(CommandParser.parse(0, "CREATE java"));
+    }
+
+    @Test
+    public void testMalformedLinesThrow() {
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse(0, ""));
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse(0, ":just a payload"));
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse(0, "JOIN a b c"));
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse(0, "join java"));
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse(0, "JOINS java"));
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse(0, " JOIN java"));
+    }
+
+    @Test
+    public void testTryParseReportsFailuresWithoutThrowing() {
+        ParseResult ok = CommandParser.tryParse(3, "JOIN java");
+        assertTrue(ok.isOk());
+        assertEquals(new JoinCommand(3, "java"), ok.getCommand());
+        assertNull(ok.getError());
+
+        assertSame(ParseResult.NO_COMMAND_TYPE, CommandParser.tryParse(0, ""));
+        assertSame(ParseResult.TOO_MANY_PARAMETERS, CommandParser.tryParse(0, "JOIN a b c"));
+        assertSame(ParseResult.UNKNOWN_COMMAND, CommandParser.tryParse(0, "FROB java"));
+        assertSame(ParseResult.BAD_CREATE_FLAG, CommandParser.tryParse(0, "CREATE java 2"));
+        assertEquals(ErrorCode.SYNTAX_ERROR, CommandParser.tryParse(0, "FROB").getError());
+        assertNull(CommandParser.tryParse(0, "FROB").getCommand());
+    }
+
+    @Test
+    public void testValidate() {
+        assertNull(CommandParser.parse(0, "MESG java :hi").validate());
+        assertEquals(ErrorCode.SYNTAX_ERROR, CommandParser.parse(0, "MESG java").validate());
+        assertEquals(ErrorCode.SYNTAX_ERROR, CommandParser.parse(0, "JOIN").validate());
+        assertEquals(ErrorCode.SYNTAX_ERROR, CommandParser.parse(0, "KICK java").validate());
+        assertEquals(ErrorCode.INVALID_NAME, CommandParser.parse(0, "NICK b@d").validate());
+        assertEquals(ErrorCode.INVALID_NAME, CommandParser.parse(0, "NICK").validate());
+        assertEquals(ErrorCode.INVALID_NAME, CommandParser.parse(0, "CREATE b@d 1").validate());
+    }
+
+    @Test
+    public void testSpacingQuirks() {
+        // A remainder that starts with a space is one token, spaces and all
+        assertEquals(new JoinCommand(0, " java"), CommandParser.parse(0, "JOIN  java"));
+        assertEquals(new KickCommand(0, "java", " a b"), CommandParser.parse(0, "KICK java  a b"));
+        // A trailing space adds nothing
+        assertEquals(new NicknameCommand(0, null), CommandParser.parse(0, "NICK "));
+    }
+
+    @Test
+    public void testMatchesOriginalParserOnRandomLines() {
+        String[] pieces = { "NICK", "CREATE", "JOIN", "LEAVE", "MESG", "INVITE", "KICK",
+            "NICKS", "java", "bob", "0", "1", ":", ":hi", "a:b", " ", "  ", "" };
+        Random random = new Random(1200);
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder line = new StringBuilder();
+            int count = random.nextInt(6);
+            for (int j = 0; j < count; j++) {
+                if (j > 0) {
+                    line.append(' ');
+                }
+                line.append(pieces[random.nextInt(pieces.length)]);
+            }
+            assertSameOutcome(line.toString());
+        }
+    }
+
+    private static void assertSameOutcome(String line) {
+        Object expected;
+        try {
+            expected = originalParse(0, line);
+        } catch (IllegalArgumentException iax) {
+            expected = IllegalArgumentException.class;
+        }
+        Object actual;
+        try {
+            actual = CommandParser.parse(0, line);
+        } catch (IllegalArgumentException iax) {
+            actual = IllegalArgumentException.class;
+        }
+        assertTrue(Objects.equals(expected, actual), "\"" + line + "\": " + expected + " vs " + actual);
+    }
+
+    /*
+     * The parser as it was before it became single-pass, kept to check that
+     * the new one accepts and rejects exactly the same lines.
+     */
+    private static Command originalParse(int senderId, String commandString) {
+        String commandType = null;
+        List<String> parameters = new LinkedList<>();
+        String payload = null;
+        int index;
+
+        while ((index = commandString.indexOf(' ')) > 0) {
+            if (commandString.startsWith(":")) {
+                payload = commandString.substring(1);
+                commandString = "";
+                break;
+            } else {
+                String token = commandString.substring(0, index);
+                if (commandType == null) {
+                    commandType = token;
+                } else {
+                    parameters.add(token);
+                }
+                commandString = commandString.substring(index + 1);
+            }
+        }
+
+        if (!commandString.isEmpty()) {
+            if (commandString.startsWith(":")) {
+                payload = commandString.substring(1);
+            } else if (commandType == null) {
+                commandType = commandString;
+            } else {
+                parameters.add(commandString);
+            }
+        }
+
+        if (commandType == null) {
+            throw new IllegalArgumentException("No command type");
+        } else if (parameters.size() > 2) {
+            throw new IllegalArgumentException("Too many parameters");
+        }
+
+        String param0 = parameters.size() >= 1 ? parameters.get(0) : null;
+        String param1 = parameters.size() >= 2 ? parameters.get(1) : null;
+
+        switch (commandType) {
+            case "CREATE":
+                if ("1".equals(param1)) {
+                    return new CreateCommand(senderId, param0, true);
+                } else if ("0".equals(param1)) {
+                    return new CreateCommand(senderId, param0, false);
+                }
+                return null;
+            case "INVITE":
+                return new InviteCommand(senderId, param0, param1);
+            case "JOIN":
+                return new JoinCommand(senderId, param0);
+            case "KICK":
+                return new KickCommand(senderId, param0, param1);
+            case "LEAVE":
+                return new LeaveCommand(senderId, param0);
+            case "MESG":
+                return new MessageCommand(senderId, param0, payload);
+            case "NICK":
+                return new NicknameCommand(senderId, param0);
+            default:
+                throw new IllegalArgumentException("Unknown command " + commandType);
+        }
+    }
+}
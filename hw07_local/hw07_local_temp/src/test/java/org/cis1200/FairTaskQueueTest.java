@@ -0,0 +1,102 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FairTaskQueueTest {
+
+    /*
+     * Tasks are strings: the lane is the first letter, and tasks starting
+     * with '!' are control tasks for the lane of their second letter.
+     */
+    private static FairTaskQueue<String> queue(int quantum) {
+        return new FairTaskQueue<>(
+                task -> task.charAt(task.startsWith("!") ? 1 : 0),
+                task -> task.startsWith("!"),
+                quantum
+        );
+    }
+
+    private static List<String> takeAll(FairTaskQueue<String> queue, int max)
+            throws InterruptedException {
+        List<String> taken = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            queue.take(taken, max);
+        }
+        return taken;
+    }
+
+    @Test
+    public void testLanesTakeTurns() throws InterruptedException {
+        FairTaskQueue<String> queue = queue(1);
+        for (int i = 0; i < 4; i++) {
+            queue.add("a" + i);
+        }
+        queue.add("b0");
+        queue.add("c0");
+        queue.add("b1");
+        assertEquals(List.of("a0", "b0", "c0", "a1", "b1", "a2", "a3"), takeAll(queue, 100));
+    }
+
+    @Test
+    public void testQuantumIsTasksPerTurn() throws InterruptedException {
+        FairTaskQueue<String> queue = queue(2);
+        for (int i = 0; i < 5; i++) {
+            queue.add("a" + i);
+        }
+        queue.add("b0");
+        queue.add("b1");
+        queue.add("b2");
+        assertEquals(List.of("a0", "a1", "b0", "b1", "a2", "a3", "b2", "a4"), takeAll(queue, 100));
+    }
+
+    @Test
+    public void testTurnsCarryOverBetweenBatches() throws InterruptedException {
+        FairTaskQueue<String> queue = queue(3);
+        for (int i = 0; i < 4; i++) {
+            queue.add("a" + i);
+        }
+        queue.add("b0");
+        // A batch of one still leaves "a" its full turn of three
+        assertEquals(List.of("a0", "a1", "a2", "b0", "a3"), takeAll(queue, 1));
+    }
+
+    @Test
+    public void testControlTasksGoFirst() throws InterruptedException {
+        FairTaskQueue<String> queue = queue(1);
+        for (int i = 0; i < 3; i++) {
+            queue.add("a" + i);
+        }
+        queue.add("!b connect");
+        queue.add("!c connect");
+        assertEquals(List.of("!b connect", "!c connect", "a0", "a1", "a2"), takeAll(queue, 100));
+    }
+
+    @Test
+    public void testControlTaskWaitsForItsOwnLane() throws InterruptedException {
+        FairTaskQueue<String> queue = queue(1);
+        queue.add("b0");
+        queue.add("a0");
+        queue.add("a1");
+        queue.add("!a quit");
+        queue.add("a2");
+        // a0 and a1 came before a's control task; a2 came after it
+        assertEquals(List.of("a0", "a1", "!a quit", "b0", "a2"), takeAll(queue, 100));
+    }
+
+    @Test
+    public void testFloodingLaneCannotStarveOthers() throws InterruptedException {
+        FairTaskQueue<String> queue = queue(1);
+        for (int i = 0; i < 10_000; i++) {
+            queue.add("a" + i);
+        }
+        queue.add("b0");
+        List<String> batch = new ArrayList<>();
+        queue.take(batch, 2);
+        assertEquals(List.of("a0", "b0"), batch);
+        assertEquals(9_999, queue.size());
+    }
+}
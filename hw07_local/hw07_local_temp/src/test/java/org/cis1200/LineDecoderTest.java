@@ -0,0 +1,70 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LineDecoderTest {
+    private LineDecoder decoder;
+    private List<String> lines;
+
+    @BeforeEach
+    public void setUp() {
+        decoder = new LineDecoder();
+        lines = new ArrayList<>();
+    }
+
+    private void feed(String chunk) {
+        decoder.decode(ByteBuffer.wrap(chunk.getBytes(StandardCharsets.UTF_8)), lines::add);
+    }
+
+    @Test
+    public void testSplitsOnEveryTerminator() {
+        feed("NICK a\nJOIN b\r\nLEAVE b\rMESG b :c\n");
+        assertEquals(List.of("NICK a", "JOIN b", "LEAVE b", "MESG b :c"), lines);
+    }
+
+    @Test
+    public void testLineSplitAcrossReads() {
+        feed("MESG java :hel");
+        assertTrue(lines.isEmpty(), "no line until the terminator arrives");
+        feed("lo\n");
+        assertEquals(List.of("MESG java :hello"), lines);
+    }
+
+    @Test
+    public void testCarriageReturnLineFeedSplitAcrossReads() {
+        feed("JOIN java\r");
+        feed("\nLEAVE java\n");
+        assertEquals(List.of("JOIN java", "LEAVE java"), lines, "no empty line between");
+    }
+
+    @Test
+    public void testEmptyLinesAreKept() {
+        feed("\n\nNICK a\n");
+        assertEquals(List.of("", "", "NICK a"), lines);
+    }
+
+    @Test
+    public void testMultiByteCharacterSplitAcrossReads() {
+        byte[] bytes = "MESG java :été\n".getBytes(StandardCharsets.UTF_8);
+        // cut in the middle of the first two-byte character
+        decoder.decode(ByteBuffer.wrap(bytes, 0, 12), lines::add);
+        decoder.decode(ByteBuffer.wrap(bytes, 12, bytes.length - 12), lines::add);
+        assertEquals(List.of("MESG java :été"), lines);
+    }
+
+    @Test
+    public void testFinishDeliversUnterminatedLine() {
+        feed("NICK a\nJOIN b");
+        decoder.finish(lines::add);
+        assertEquals(List.of("NICK a", "JOIN b"), lines);
+
+        decoder.finish(lines::add);
+        assertEquals(2, lines.size(), "nothing left to deliver");
+    }
+}
@@ -0,0 +1,58 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Properties;
+
+/**
+ * Short runs of the {@link LoadGenerator} against an embedded server.
+ */
+public class LoadGeneratorTest {
+
+    private static LoadGenerator.Report run(String... options) throws Exception {
+        Properties scenario = new Properties();
+        scenario.setProperty("embedded", "true");
+        scenario.setProperty("connections", "8");
+        scenario.setProperty("channels", "3");
+        scenario.setProperty("messageRate", "500");
+        scenario.setProperty("warmupSeconds", "0.2");
+        scenario.setProperty("durationSeconds", "0.5");
+        scenario.setProperty("drainMillis", "5000");
+        scenario.setProperty("seed", "42");
+        for (String option : options) {
+            int eq = option.indexOf('=');
+            scenario.setProperty(option.substring(0, eq), option.substring(eq + 1));
+        }
+        return new LoadGenerator(scenario).run();
+    }
+
+    @Test
+    public void testEveryMemberReceivesEveryMessage() throws Exception {
+        LoadGenerator.Report report = run("channelSize=fixed:4");
+        assertTrue(report.messages > 0, "messages were sent");
+        assertEquals(4 * report.messages, report.expectedDeliveries);
+        assertEquals(report.expectedDeliveries, report.deliveries);
+        assertEquals(report.deliveries, report.latency.getCount());
+        assertEquals(0, report.errors);
+    }
+
+    @Test
+    public void testChurnAndSkewedChannels() throws Exception {
+        LoadGenerator.Report report = run(
+                "channelSize=zipf:1:8", "churnRate=100", "server.transport=nio"
+        );
+        assertTrue(report.churns > 0, "members left and joined");
+        assertTrue(report.deliveries > 0, "messages arrived");
+        assertEquals(0, report.errors);
+        assertTrue(report.toString().contains("p999="));
+    }
+
+    @Test
+    public void testRejectsUnknownChannelSize() {
+        Properties scenario = new Properties();
+        scenario.setProperty("embedded", "true");
+        scenario.setProperty("channelSize", "normal:5");
+        assertThrows(IllegalArgumentException.class, () -> new LoadGenerator(scenario).run());
+    }
+}
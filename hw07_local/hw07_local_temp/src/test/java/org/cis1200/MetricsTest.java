@@ -0,0 +1,95 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+public class MetricsTest {
+    private final Metrics metrics = new Metrics();
+
+    @AfterEach
+    public void tearDown() {
+        metrics.stopServing();
+    }
+
+    @Test
+    public void testCountersAreCreatedOnce() {
+        metrics.counter("lines_total").increment();
+        metrics.counter("lines_total").add(2);
+        assertEquals(3, metrics.snapshot().get("lines_total"));
+    }
+
+    @Test
+    public void testGaugesAreReadWhenSnapshotted() {
+        long[] value = { 1 };
+        metrics.gauge("depth", () -> value[0]);
+        assertEquals(1, metrics.snapshot().get("depth"));
+        value[0] = 7;
+        assertEquals(7, metrics.snapshot().get("depth"));
+    }
+
+    @Test
+    public void testGaugeFamilyHasASeriesPerKey() {
+        Map<String, Long> throttled = new TreeMap<>(Map.of("java", 2L));
+        metrics.gaugeFamily("throttled_total", "channel", () -> throttled);
+        assertEquals(2, metrics.snapshot().get("throttled_total{channel=\"java\"}"));
+        throttled.put("ocaml", 5L);
+        throttled.remove("java");
+        SortedMap<String, Long> snapshot = metrics.snapshot();
+        assertEquals(5, snapshot.get("throttled_total{channel=\"ocaml\"}"));
+        assertFalse(snapshot.containsKey("throttled_total{channel=\"java\"}"), "gone");
+    }
+
+    @Test
+    public void testHistogramSeries() {
+        Histogram histogram = metrics.histogram("wait_nanos{shard=\"0\"}");
+        assertSame(histogram, metrics.histogram("wait_nanos{shard=\"0\"}"));
+        histogram.record(10);
+        histogram.record(30);
+        SortedMap<String, Long> snapshot = metrics.snapshot();
+        assertEquals(10, snapshot.get("wait_nanos{shard=\"0\",quantile=\"0.5\"}"));
+        assertEquals(30, snapshot.get("wait_nanos{shard=\"0\",quantile=\"0.999\"}"));
+        assertEquals(2, snapshot.get("wait_nanos_count{shard=\"0\"}"));
+        assertEquals(40, snapshot.get("wait_nanos_sum{shard=\"0\"}"));
+        assertEquals(30, snapshot.get("wait_nanos_max{shard=\"0\"}"));
+    }
+
+    @Test
+    public void testWithLabel() {
+        assertEquals("a{b=\"1\"}", Metrics.withLabel("a", "b=\"1\""));
+        assertEquals("a{b=\"1\",c=\"2\"}", Metrics.withLabel("a{b=\"1\"}", "c=\"2\""));
+    }
+
+    @Test
+    public void testFormatIsSorted() {
+        metrics.counter("b").increment();
+        metrics.gauge("a", () -> 5);
+        assertEquals("a 5\nb 1\n", metrics.format());
+    }
+
+    @Test
+    public void testEndpoint() throws IOException {
+        metrics.counter("requests_total").add(42);
+        metrics.serve(0);
+        assertTrue(metrics.getPort() > 0);
+
+        URL url = new URL("http://127.0.0.1:" + metrics.getPort() + "/metrics");
+        HttpURLConnection http = (HttpURLConnection) url.openConnection();
+        assertEquals(200, http.getResponseCode());
+        try (InputStream in = http.getInputStream()) {
+            String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            assertEquals("requests_total 42\n", body);
+        }
+
+        metrics.stopServing();
+        assertEquals(-1, metrics.getPort());
+    }
+}
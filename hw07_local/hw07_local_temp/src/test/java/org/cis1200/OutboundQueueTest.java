@@ -0,0 +1,159 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class OutboundQueueTest {
+    private OutboundQueue.Stats stats;
+
+    @BeforeEach
+    public void setUp() {
+        stats = new OutboundQueue.Stats();
+    }
+
+    private static byte[] line(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] line) {
+        return line == null ? null : new String(line, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testFirstInFirstOut() {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DISCONNECT, stats);
+        assertTrue(queue.offer(line("a")));
+        assertTrue(queue.offer(line("b")));
+        assertEquals(2, queue.size());
+        assertEquals(2, stats.getQueuedLines());
+        assertEquals("a", text(queue.poll()));
+        assertEquals("b", text(queue.poll()));
+        assertNull(queue.poll(), "empty queue");
+        assertEquals(0, stats.getQueuedLines());
+        assertEquals(2, stats.getMaxDepth());
+    }
+
+    @Test
+    public void testDropOldest() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST, stats);
+        queue.offer(line("a"));
+        queue.offer(line("b"));
+        assertTrue(queue.offer(line("c")), "never refuses");
+        assertEquals("b", text(queue.poll()));
+        assertEquals("c", text(queue.poll()));
+        assertEquals(1, stats.getDroppedLines());
+        assertEquals(2, stats.getMaxDepth(), "never grows past capacity");
+    }
+
+    @Test
+    public void testDisconnectRefusesWhenFull() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT, stats);
+        assertTrue(queue.offer(line("a")));
+        assertFalse(queue.offer(line("b")));
+        assertEquals(1, stats.getSlowConsumerDisconnects());
+        assertEquals("a", text(queue.poll()), "queued line is kept");
+    }
+
+    @Test
+    public void testBlockWaitsForRoom() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.BLOCK, stats);
+        queue.offer(line("a"));
+        CountDownLatch offered = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            queue.offer(line("b"));
+            offered.countDown();
+        });
+        producer.start();
+        assertFalse(offered.await(100, TimeUnit.MILLISECONDS), "producer blocks while full");
+        assertEquals("a", text(queue.take()));
+        assertTrue(offered.await(5, TimeUnit.SECONDS), "producer resumes once there is room");
+        assertEquals("b", text(queue.take()));
+        assertTrue(stats.getBlockedNanos() > 0);
+    }
+
+    @Test
+    public void testBlockRefusesWhenTheCallerMayNotWait() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.BLOCK, stats);
+        assertTrue(queue.offer(line("a"), false), "room for one");
+        assertFalse(queue.offer(line("b"), false), "refused rather than waiting");
+        assertEquals(1, queue.size());
+        assertEquals(1, stats.getSlowConsumerDisconnects());
+    }
+
+    @Test
+    public void testCloseReleasesWaitersAndDiscardsLines() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.BLOCK, stats);
+        queue.offer(line("a"));
+        Thread producer = new Thread(() -> queue.offer(line("b")));
+        producer.start();
+        queue.close();
+        producer.join(5000);
+        assertFalse(producer.isAlive(), "blocked producer is released");
+        assertNull(queue.take(), "closed queue yields nothing");
+        assertTrue(queue.offer(line("c")), "offers after close are ignored");
+        assertEquals(0, queue.size());
+        assertEquals(0, stats.getQueuedLines());
+    }
+
+    @Test
+    public void testTimedPoll() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.BLOCK, stats);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        queue.offer(line("a"));
+        assertEquals("a", text(queue.poll(10, TimeUnit.MILLISECONDS)));
+    }
+
+    @Test
+    public void testDrainTo() {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DISCONNECT, stats);
+        queue.offer(line("a"));
+        queue.offer(line("b"));
+        queue.offer(line("c"));
+        List<byte[]> batch = new ArrayList<>();
+        assertEquals(2, queue.drainTo(batch, 2));
+        assertEquals("a", text(batch.get(0)));
+        assertEquals("b", text(batch.get(1)));
+        assertEquals(1, queue.size());
+        assertEquals(1, stats.getQueuedLines());
+        assertEquals(1, queue.drainTo(batch, 2));
+        assertEquals(0, queue.drainTo(batch, 2), "empty queue");
+    }
+
+    @Test
+    public void testFlushWakesTheWriter() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DISCONNECT, stats);
+        CountDownLatch waiting = new CountDownLatch(1);
+        List<String> taken = new ArrayList<>();
+        Thread writer = new Thread(() -> {
+            try {
+                waiting.countDown();
+                taken.add(text(queue.take()));
+            } catch (InterruptedException ix) {
+                // the test fails below
+            }
+        });
+        writer.start();
+        waiting.await();
+        queue.offer(line("a"));
+        queue.flush();
+        writer.join(5000);
+        assertEquals(List.of("a"), taken);
+    }
+
+    @Test
+    public void testStatsAreSharedAcrossQueues() {
+        OutboundQueue first = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DISCONNECT, stats);
+        OutboundQueue second = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DISCONNECT, stats);
+        first.offer(line("a"));
+        second.offer(line("b"));
+        second.offer(line("c"));
+        assertEquals(3, stats.getQueuedLines());
+        assertEquals(2, stats.getMaxDepth());
+    }
+}
@@ -0,0 +1,100 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+public class ProfilingWatcherTest {
+    private static final long MILLI = 1_000_000L;
+
+    private ByteArrayOutputStream output;
+    private AsyncLog log;
+    private ProfilingWatcher watcher;
+
+    @BeforeEach
+    public void setUp() {
+        output = new ByteArrayOutputStream();
+        log = new AsyncLog(new PrintStream(output, true, StandardCharsets.UTF_8), 16);
+        log.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (watcher != null) {
+            watcher.close();
+        }
+        log.close();
+    }
+
+    /*
+     * The stream hands events over about once a second.
+     */
+    private void awaitWarning() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (watcher.getWarnings() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "warned");
+            Thread.sleep(50);
+        }
+    }
+
+    private String written() {
+        log.close();
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRejectsBadLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new ProfilingWatcher(0, MILLI, log));
+        assertThrows(IllegalArgumentException.class, () -> new ProfilingWatcher(1.5, MILLI, log));
+        assertThrows(IllegalArgumentException.class, () -> new ProfilingWatcher(0.9, 0, log));
+    }
+
+    @Test
+    public void testWarnsAboutSlowCommands() throws Exception {
+        watcher = new ProfilingWatcher(1, 10 * MILLI, log);
+        watcher.start();
+        FlightEvents.CommandExecuted event = new FlightEvents.CommandExecuted();
+        event.begin();
+        Thread.sleep(30);
+        event.end();
+        assertTrue(event.shouldCommit(), "over the threshold the watcher asked for");
+        event.command = "MessageCommand";
+        event.channel = "java";
+        event.sender = 3;
+        event.fanout = 2;
+        event.commit();
+        awaitWarning();
+        String warning = written();
+        assertTrue(warning.contains("1 command(s) took over 10 ms in the model; "
+                + "slowest: MessageCommand from user 3 in java"), warning);
+    }
+
+    @Test
+    public void testIgnoresFastCommands() {
+        watcher = new ProfilingWatcher(1, 1000 * MILLI, log);
+        watcher.start();
+        FlightEvents.CommandExecuted event = new FlightEvents.CommandExecuted();
+        event.begin();
+        event.end();
+        assertFalse(event.shouldCommit(), "under the threshold");
+    }
+
+    @Test
+    public void testWarnsAboutBusyModelThread() throws Exception {
+        watcher = new ProfilingWatcher(0.1, 1000 * MILLI, log);
+        watcher.start();
+        FlightEvents.DispatchBatch event = new FlightEvents.DispatchBatch();
+        event.begin();
+        Thread.sleep(500);
+        event.end();
+        event.shard = 2;
+        event.tasks = 1;
+        event.commit();
+        awaitWarning();
+        String warning = written();
+        assertTrue(warning.matches("(?s).*Model thread 2 busy \\d+% of the last \\d+ ms.*"), warning);
+    }
+}
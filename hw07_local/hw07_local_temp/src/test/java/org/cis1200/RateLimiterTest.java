@@ -0,0 +1,105 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private static Command mesg(int sender, String channel) {
+        return new MessageCommand(sender, channel, "hi");
+    }
+
+    @Test
+    public void testRejectsClientOverItsRate() {
+        RateLimiter limiter = new RateLimiter(1, 2, 0, 1, RateLimiter.Policy.REJECT, 0);
+        assertEquals(0, limiter.admit(new JoinCommand(0, "java"), 0));
+        assertEquals(0, limiter.admit(mesg(0, "java"), 0));
+        assertEquals(RateLimiter.REJECTED, limiter.admit(mesg(0, "java"), 0));
+        assertEquals(0, limiter.admit(mesg(1, "java"), 0), "other clients are not affected");
+        assertEquals(0, limiter.admit(mesg(0, "java"), SECOND), "refilled");
+
+        assertEquals(1, limiter.getRejected());
+        assertEquals(Map.of(0, 1L), limiter.getThrottledUsers());
+        limiter.forget(0);
+        assertEquals(Map.of(), limiter.getThrottledUsers());
+    }
+
+    @Test
+    public void testSlowModeLimitsMessagesPerChannel() {
+        RateLimiter limiter = new RateLimiter(0, 1, 1, 2, RateLimiter.Policy.REJECT, 0);
+        assertEquals(0, limiter.admit(mesg(0, "java"), 0));
+        assertEquals(0, limiter.admit(mesg(1, "java"), 0));
+        assertEquals(RateLimiter.REJECTED, limiter.admit(mesg(2, "java"), 0), "channel is full");
+        assertEquals(0, limiter.admit(mesg(2, "ocaml"), 0), "other channels are not");
+        assertEquals(0, limiter.admit(new JoinCommand(2, "java"), 0), "only MESG counts");
+
+        assertEquals(Map.of("java", 1L), limiter.getThrottledChannels());
+        assertEquals(Map.of(2, 1L), limiter.getThrottledUsers());
+    }
+
+    @Test
+    public void testDelayKeepsEachClientInOrder() {
+        RateLimiter limiter = new RateLimiter(0, 1, 10, 1, RateLimiter.Policy.DELAY, SECOND);
+        long tenth = SECOND / 10;
+        assertEquals(0, limiter.admit(mesg(0, "java"), 0));
+        assertEquals(tenth, limiter.admit(mesg(0, "java"), 0), "waits for the channel");
+        // Not itself limited, but must not overtake the delayed message
+        assertEquals(tenth, limiter.admit(new JoinCommand(0, "ocaml"), 0));
+        assertEquals(0, limiter.admit(new JoinCommand(1, "ocaml"), 0));
+        assertEquals(2, limiter.getDelayed());
+    }
+
+    @Test
+    public void testNeverOvertakesACommandStillHeldBack() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(0, 1, 10, 1, RateLimiter.Policy.DELAY, SECOND);
+        long tenth = SECOND / 10;
+        assertEquals(0, limiter.admit(mesg(0, "java"), 0));
+        assertEquals(tenth, limiter.admit(mesg(0, "java"), 0));
+        // Due, but the limiter's thread has not run it yet
+        long wait = limiter.admit(new JoinCommand(0, "ocaml"), 2 * tenth);
+        assertTrue(wait > 0, "waits behind it");
+
+        limiter.start();
+        long now = System.nanoTime();
+        CountDownLatch done = new CountDownLatch(1);
+        limiter.runLater(0, now, () -> { });
+        limiter.runLater(0, now + wait, () -> { });
+        // Runs last, on the same thread, about a client it does not know
+        limiter.runLater(1, now + wait + 1, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, limiter.admit(new JoinCommand(0, "scala"), 3 * tenth), "none left");
+        limiter.close();
+    }
+
+    @Test
+    public void testDelayRejectsBeyondTheMaximum() {
+        RateLimiter limiter = new RateLimiter(10, 1, 0, 1, RateLimiter.Policy.DELAY, SECOND / 10);
+        assertEquals(0, limiter.admit(mesg(0, "java"), 0));
+        assertEquals(SECOND / 10, limiter.admit(mesg(0, "java"), 0));
+        assertEquals(RateLimiter.REJECTED, limiter.admit(mesg(0, "java"), 0));
+    }
+
+    @Test
+    public void testRunLaterRunsInDueOrder() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(1, 1, 0, 1, RateLimiter.Policy.DELAY, SECOND);
+        limiter.start();
+        List<Integer> ran = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        long now = System.nanoTime();
+        long soon = now + TimeUnit.MILLISECONDS.toNanos(20);
+        limiter.runLater(0, soon + 1, () -> { ran.add(3); done.countDown(); });
+        limiter.runLater(0, soon, () -> { ran.add(1); done.countDown(); });
+        limiter.runLater(0, soon, () -> { ran.add(2); done.countDown(); });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() >= soon);
+        assertEquals(List.of(1, 2, 3), ran);
+        limiter.close();
+    }
+}
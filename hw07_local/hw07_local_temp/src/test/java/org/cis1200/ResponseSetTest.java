@@ -0,0 +1,92 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Set;
+
+public class ResponseSetTest {
+
+    @Test
+    public void testBroadcastEqualsIndividualResponses() {
+        Command mesg = new MessageCommand(0, "java", "hello");
+        ResponseSet broadcast = new ResponseSet();
+        broadcast.addBroadcast(Broadcast.okay(List.of(0, 1, 2), "User0", mesg));
+
+        ResponseSet individual = new ResponseSet();
+        individual.addMessage(Response.okay(0, "User0", mesg));
+        individual.addMessage(Response.okay(1, "User0", mesg));
+        individual.addMessage(Response.okay(2, "User0", mesg));
+
+        assertEquals(individual, broadcast, "same responses either way");
+        assertEquals(broadcast, individual, "equality is symmetric");
+        assertEquals(individual.hashCode(), broadcast.hashCode(), "same hash");
+        assertEquals(individual.getResponses(), broadcast.getResponses(), "same expansion");
+    }
+
+    @Test
+    public void testBroadcastMixedWithSingleResponses() {
+        Command join = new JoinCommand(1, "java");
+        ResponseSet mixed = new ResponseSet();
+        mixed.addBroadcast(Broadcast.okay(Set.of(0, 1), "User1", join));
+        mixed.addMessage(Response.names(1, "User1", "java", "@User0 User1"));
+
+        ResponseSet expected = new ResponseSet();
+        expected.addMessage(Response.okay(0, "User1", join));
+        expected.addMessage(Response.okay(1, "User1", join));
+        expected.addMessage(Response.names(1, "User1", "java", "@User0 User1"));
+        assertEquals(expected, mixed);
+        assertEquals(2, mixed.getOutgoingCount(), "one broadcast, one response");
+        assertEquals(":User1 JOIN java", mixed.getOutgoing(0).getText(), "join first");
+        assertEquals(":User1 NAMES java :@User0 User1", mixed.getOutgoing(1).getText());
+    }
+
+    @Test
+    public void testBroadcastEncodesOnce() {
+        Broadcast broadcast = Broadcast.okay(
+                List.of(3, 4), "User3", new MessageCommand(3, "java", "héllo")
+        );
+        assertEquals(2, broadcast.size());
+        assertEquals(":User3 MESG java :héllo", broadcast.getText());
+        byte[] line = broadcast.getEncodedLine();
+        assertSame(line, broadcast.getEncodedLine(), "shared by every recipient");
+        assertArrayEquals(ClientConnection.encodeLine(":User3 MESG java :héllo"), line);
+    }
+
+    @Test
+    public void testOutgoingKeepsInsertionOrder() {
+        ResponseSet responses = new ResponseSet();
+        responses.addMessage(Response.connected(5, "User5"));
+        responses.addMessage(Response.connected(1, "User1"));
+        responses.addMessage(Response.disconnected(3, "User2"));
+
+        assertEquals(3, responses.getOutgoingCount());
+        assertEquals(5, responses.getOutgoing(0).getRecipientId(0), "not sorted");
+        assertEquals(1, responses.getOutgoing(1).getRecipientId(0));
+        assertEquals(3, responses.getOutgoing(2).getRecipientId(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> responses.getOutgoing(3));
+    }
+
+    @Test
+    public void testCanonicalFormIsSortedAndDeduplicated() {
+        ResponseSet responses = new ResponseSet();
+        for (int i = 9; i >= 0; i--) {
+            responses.addMessage(Response.connected(i, "User" + i));
+        }
+        responses.addMessage(Response.connected(4, "User4"));
+        assertEquals(11, responses.getOutgoingCount(), "appends are not checked");
+
+        Set<Response> canonical = responses.getResponses();
+        assertEquals(10, canonical.size(), "duplicate removed");
+        int expectedId = 0;
+        for (Response response : canonical) {
+            assertEquals(expectedId++, response.getRecipientId(), "sorted by recipient");
+        }
+        assertThrows(UnsupportedOperationException.class, () -> canonical.clear());
+
+        //the canonical form is rebuilt after a later add
+        responses.addMessage(Response.connected(10, "User10"));
+        assertEquals(11, responses.getResponses().size());
+    }
+}
@@ -0,0 +1,844 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * End-to-end tests that run a real {@link ServerBackend} on a free local
+ * port and talk to it over sockets, once for every transport.
+ */
+public class ServerBackendTest {
+    private ServerBackend backend;
+
+    @TempDir
+    Path tempDir;
+
+    private Thread launch(String transport, String... options) {
+        Properties props = new Properties();
+        props.setProperty("port", "0");
+        props.setProperty("transport", transport);
+        for (String option : options) {
+            int eq = option.indexOf('=');
+            props.setProperty(option.substring(0, eq), option.substring(eq + 1));
+        }
+        backend = new ServerBackend(new ServerModel(), new ServerConfig(props));
+        Thread acceptor = new Thread(backend, "Connection acceptor");
+        acceptor.start();
+        return acceptor;
+    }
+
+    private int start(String transport, String... options) throws InterruptedException {
+        launch(transport, options);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (backend.getLocalPort() <= 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "server did not start");
+            Thread.sleep(10);
+        }
+        return backend.getLocalPort();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (backend != null) {
+            backend.stop();
+        }
+    }
+
+    private static final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+
+        Client(int port) throws IOException {
+            this(port, 0);
+        }
+
+        /** @param receiveBuffer the socket's receive buffer, or 0 for the default */
+        Client(int port, int receiveBuffer) throws IOException {
+            socket = new Socket();
+            if (receiveBuffer > 0) {
+                socket.setReceiveBufferSize(receiveBuffer);
+            }
+            socket.connect(new InetSocketAddress("localhost", port));
+            socket.setSoTimeout(5000);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out = new PrintWriter(socket.getOutputStream(), true);
+        }
+
+        void send(String line) {
+            out.println(line);
+        }
+
+        /** Sends several lines in one write. */
+        void send(List<String> lines) {
+            StringBuilder text = new StringBuilder();
+            for (String line : lines) {
+                text.append(line).append('\n');
+            }
+            out.print(text);
+            out.flush();
+        }
+
+        String receive() throws IOException {
+            return in.readLine();
+        }
+
+        /** Hangs up while the client is still in use by the test. */
+        void disconnect() throws IOException {
+            socket.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            disconnect();
+        }
+    }
+
+    private void converse(String transport, String... options) throws Exception {
+        int port = start(transport, options);
+        try (Client alice = new Client(port); Client bob = new Client(port)) {
+            assertEquals(":User0 CONNECT", alice.receive(), "first user connected");
+            assertEquals(":User1 CONNECT", bob.receive(), "second user connected");
+
+            alice.send("CREATE java 0");
+            assertEquals(":User0 CREATE java 0", alice.receive(), "create echoed");
+            bob.send("JOIN java");
+            assertEquals(":User1 JOIN java", alice.receive(), "owner sees join");
+            assertEquals(":User1 JOIN java", bob.receive(), "joiner sees join");
+            assertEquals(":User1 NAMES java :@User0 User1", bob.receive(), "names");
+
+            bob.send("MESG java :hello there");
+            assertEquals(":User1 MESG java :hello there", alice.receive(), "message");
+            assertEquals(":User1 MESG java :hello there", bob.receive(), "message echo");
+
+            bob.disconnect();
+            assertEquals(":User1 QUIT", alice.receive(), "disconnect broadcast");
+        }
+    }
+
+    @Test
+    public void testBlockingTransport() throws Exception {
+        converse("blocking");
+    }
+
+    @Test
+    public void testNioTransport() throws Exception {
+        converse("nio");
+    }
+
+    @Test
+    public void testRingTaskQueue() throws Exception {
+        converse("nio", "taskQueue=ring", "waitStrategy=spin", "taskQueueCapacity=16");
+    }
+
+    /*
+     * Pipelines far more commands than the ring holds, so the thread that
+     * reads them must wait for the model thread to make room, again and
+     * again, without losing or reordering any.
+     */
+    private void assertRingBackpressure(String transport, String... options) throws Exception {
+        String[] all = Arrays.copyOf(options, options.length + 2);
+        all[options.length] = "taskQueue=ring";
+        all[options.length + 1] = "taskQueueCapacity=4";
+        int port = start(transport, all);
+        try (Client alice = new Client(port)) {
+            assertEquals(":User0 CONNECT", alice.receive());
+            alice.send("CREATE java 0");
+            assertEquals(":User0 CREATE java 0", alice.receive());
+            List<String> burst = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                burst.add("MESG java :" + i);
+            }
+            alice.send(burst);
+            for (int i = 0; i < 500; i++) {
+                assertEquals(":User0 MESG java :" + i, alice.receive(), "echo " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testRingBackpressureOnNio() throws Exception {
+        assertRingBackpressure("nio", "eventLoops=1");
+    }
+
+    @Test
+    public void testRingBackpressureWithBlockedOverflow() throws Exception {
+        // The reader waits for the ring while the model thread waits for
+        // the writer, which depends on neither
+        assertRingBackpressure("blocking", "overflow=block", "outboundCapacity=4");
+    }
+
+    @Test
+    public void testRingRejectedWithNioAndBlockedOverflow() {
+        // The event loop would wait for the ring while the model thread
+        // waits for the loop to write
+        assertThrows(IllegalArgumentException.class, () -> ServerConfig.fromArgs(new String[] {
+            "transport=nio", "taskQueue=ring", "overflow=block"
+        }));
+        ServerConfig.fromArgs(new String[] {"transport=nio", "taskQueue=ring"});
+    }
+
+    /*
+     * Sends messages on channels spread over the shards, renaming the sender
+     * between rounds. A NICK is a barrier, so a member sees every message
+     * sent before it under the old name, then the NICK, then the rest under
+     * the new name.
+     */
+    private void assertNickBarriers(String transport, String... options) throws Exception {
+        int port = start(transport, options);
+        int channels = 6;
+        int rounds = 5;
+        try (Client alice = new Client(port); Client bob = new Client(port)) {
+            assertEquals(":User0 CONNECT", alice.receive());
+            assertEquals(":User1 CONNECT", bob.receive());
+            for (int c = 0; c < channels; c++) {
+                alice.send("CREATE c" + c + " 0");
+                assertEquals(":User0 CREATE c" + c + " 0", alice.receive());
+                bob.send("JOIN c" + c);
+                assertEquals(":User1 JOIN c" + c, bob.receive());
+                assertEquals(":User1 NAMES c" + c + " :@User0 User1", bob.receive());
+                assertEquals(":User1 JOIN c" + c, alice.receive());
+            }
+            List<String> burst = new ArrayList<>();
+            for (int r = 0; r < rounds; r++) {
+                for (int c = 0; c < channels; c++) {
+                    burst.add("MESG c" + c + " :" + r);
+                }
+                burst.add("NICK a" + r);
+            }
+            alice.send(burst);
+            String nick = "User0";
+            for (int r = 0; r < rounds; r++) {
+                List<String> round = new ArrayList<>();
+                for (int c = 0; c < channels; c++) {
+                    round.add(bob.receive());
+                }
+                for (int c = 0; c < channels; c++) {
+                    assertTrue(round.contains(":" + nick + " MESG c" + c + " :" + r), round.toString());
+                }
+                assertEquals(":" + nick + " NICK a" + r, bob.receive(), "after round " + r);
+                nick = "a" + r;
+            }
+        }
+    }
+
+    @Test
+    public void testShardedModel() throws Exception {
+        assertNickBarriers("nio", "shards=4");
+        assertTrue(backend.getMetrics().snapshot().containsKey("task_queue_depth{shard=\"3\"}"));
+    }
+
+    @Test
+    public void testRateLimitRejects() throws Exception {
+        int port = start("blocking", "userRate=0.001", "userBurst=2");
+        try (Client alice = new Client(port)) {
+            assertEquals(":User0 CONNECT", alice.receive());
+            alice.send("NICK alice");
+            assertEquals(":User0 NICK alice", alice.receive());
+            alice.send("NICK bob");
+            assertEquals(":alice NICK bob", alice.receive());
+            alice.send("NICK carol");
+            assertEquals(":$server ERROR 429", alice.receive(), "over the limit");
+            alice.send("NICK b@d");
+            assertEquals(":$server ERROR 401", alice.receive(), "checked before the limit");
+            SortedMap<String, Long> snapshot = backend.getMetrics().snapshot();
+            assertEquals(
+                    1, snapshot.get("rate_limit_user_throttled_total{user=\"0\"}"), "who is throttled"
+            );
+        }
+        assertEquals(1, backend.getRateLimiter().getRejected());
+    }
+
+    @Test
+    public void testRateLimitDelays() throws Exception {
+        int port = start("nio", "userRate=20", "userBurst=1", "rateLimit=delay");
+        try (Client alice = new Client(port)) {
+            assertEquals(":User0 CONNECT", alice.receive());
+            alice.send("CREATE java 0");
+            assertEquals(":User0 CREATE java 0", alice.receive());
+            List<String> burst = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                burst.add("MESG java :" + i);
+            }
+            long start = System.nanoTime();
+            alice.send(burst);
+            for (int i = 0; i < 5; i++) {
+                assertEquals(":User0 MESG java :" + i, alice.receive(), "delayed, not rejected");
+            }
+            // About 50 ms per message once the first token is spent
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(elapsedMillis >= 150, "spread out over " + elapsedMillis + " ms");
+        }
+        assertEquals(0, backend.getRateLimiter().getRejected());
+        assertTrue(backend.getRateLimiter().getDelayed() >= 4);
+    }
+
+    @Test
+    public void testAdmissionControl() throws Exception {
+        converse("blocking", "shedHighWatermark=1000", "maxQueueWaitMillis=5000", "shards=2");
+        AdmissionController admission = backend.getAdmission();
+        assertEquals(0, admission.getShed() + admission.getExpired());
+        assertTrue(admission.getMaxDepth() >= 1);
+    }
+
+    @Test
+    public void testAdmissionControlShedsTheHeaviestSender() throws Exception {
+        // At the latest once the model thread waits for a member that never
+        // reads, Alice's messages pile up in the queue behind it
+        int port = start("blocking", "shedHighWatermark=8", "overflow=block");
+        try (Client alice = new Client(port); Client mallory = new Client(port, 4096)) {
+            assertEquals(":User0 CONNECT", alice.receive());
+            alice.send("CREATE java 0");
+            assertEquals(":User0 CREATE java 0", alice.receive());
+            mallory.send("JOIN java");
+            assertEquals(":User1 JOIN java", alice.receive());
+
+            List<String> received = new CopyOnWriteArrayList<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    String line;
+                    while ((line = alice.receive()) != null) {
+                        received.add(line);
+                    }
+                } catch (IOException iox) {
+                    // closed at the end of the test
+                }
+            });
+            reader.start();
+            List<String> burst = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                burst.add("MESG java :" + "x".repeat(100));
+            }
+            AdmissionController admission = backend.getAdmission();
+            long deadline = System.currentTimeMillis() + 20000;
+            while (admission.getShed() == 0) {
+                assertTrue(System.currentTimeMillis() < deadline, "started shedding");
+                alice.send(burst);
+                Thread.sleep(10);
+            }
+            while (!received.contains(":$server ERROR 503")) {
+                assertTrue(System.currentTimeMillis() < deadline, "told the sender");
+                Thread.sleep(10);
+            }
+            assertTrue(admission.getMaxDepth() >= 8, "reached the high watermark");
+            mallory.disconnect();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        converse("blocking", "metricsPort=0");
+        Metrics metrics = backend.getMetrics();
+        assertTrue(metrics.getPort() > 0, "endpoint started");
+        SortedMap<String, Long> snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.get("lines_received_total"), "CREATE, JOIN, MESG");
+        assertEquals(2, snapshot.get("connections_accepted_total"));
+        assertEquals(
+                1, snapshot.get("command_execution_nanos_count{command=\"MessageCommand\"}")
+        );
+        assertEquals(2, snapshot.get("command_execution_nanos_count{command=\"Registration\"}"));
+        // Alice may or may not have been disconnected yet as well
+        assertTrue(snapshot.get("command_execution_nanos_count{command=\"Disconnection\"}") >= 1);
+        assertTrue(snapshot.get("bytes_received_total") >= "CREATE java 0\n".length());
+        assertTrue(snapshot.get("response_fanout_max") >= 2, "a MESG to both members");
+        assertTrue(snapshot.containsKey("task_queue_depth{shard=\"0\"}"));
+        assertTrue(snapshot.get("task_queue_wait_nanos_count") >= 3);
+
+        URL url = new URL("http://127.0.0.1:" + metrics.getPort() + "/metrics");
+        try (InputStream in = url.openStream()) {
+            String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(body.contains("\nlines_received_total 3\n"), body);
+        }
+    }
+
+    private List<String> traces(String transport, String... options) throws Exception {
+        Path file = tempDir.resolve("traces.log");
+        String[] all = Arrays.copyOf(options, options.length + 2);
+        all[options.length] = "traceSample=1";
+        all[options.length + 1] = "traceFile=" + file;
+        converse(transport, all);
+        Tracer tracer = backend.getTracer();
+        long deadline = System.currentTimeMillis() + 5000;
+        // CREATE, JOIN, MESG
+        while (tracer.getFinished() < 3) {
+            assertTrue(System.currentTimeMillis() < deadline, "traces finished");
+            Thread.sleep(10);
+        }
+        backend.stop();
+        deadline = System.currentTimeMillis() + 5000;
+        while (Files.readAllLines(file).size() < 3) {
+            assertTrue(System.currentTimeMillis() < deadline, "traces written");
+            Thread.sleep(10);
+        }
+        return Files.readAllLines(file);
+    }
+
+    @Test
+    public void testTracing() throws Exception {
+        List<String> lines = traces("nio", "shards=2");
+        String mesg = lines.stream().filter(l -> l.contains(" MessageCommand ")).findFirst()
+                .orElseThrow();
+        assertTrue(mesg.matches("\\d+ \\d+ 1 MessageCommand java q=\\d+ d=\\d+ m=\\d+ s=\\d+ "
+                + "w=(0@\\d+,1@\\d+|1@\\d+,0@\\d+)"), mesg);
+        assertTrue(TraceConverter.convert(lines).contains("write to user 0"));
+    }
+
+    @Test
+    public void testTracingInline() throws Exception {
+        List<String> lines = traces("blocking", "execution=inline");
+        assertTrue(lines.stream().anyMatch(
+                l -> l.matches("\\d+ \\d+ 1 JoinCommand java q=(\\d+) d=\\1 m=\\d+ s=\\d+ w=.*")),
+                String.join("\n", lines));
+    }
+
+    /*
+     * Records the server's Flight Recorder events through a conversation,
+     * until there is one matching each condition.
+     */
+    @SafeVarargs
+    private List<RecordedEvent> flightEvents(String transport, String options,
+                                             Predicate<RecordedEvent>... until) throws Exception {
+        List<RecordedEvent> events = new CopyOnWriteArrayList<>();
+        try (RecordingStream stream = new RecordingStream()) {
+            stream.enable(FlightEvents.CommandExecuted.class).withoutThreshold();
+            stream.enable(FlightEvents.DispatchBatch.class);
+            stream.enable(FlightEvents.QueueBacklog.class).withPeriod(Duration.ofMillis(100));
+            stream.onEvent(events::add);
+            stream.startAsync();
+            converse(transport, options.split(" "));
+            long deadline = System.currentTimeMillis() + 10000;
+            for (Predicate<RecordedEvent> condition : until) {
+                while (events.stream().noneMatch(condition)) {
+                    assertTrue(System.currentTimeMillis() < deadline, "events recorded");
+                    Thread.sleep(50);
+                }
+            }
+        }
+        return events;
+    }
+
+    private static Predicate<RecordedEvent> named(String name) {
+        return event -> event.getEventType().getName().equals("org.cis1200." + name);
+    }
+
+    private static final Predicate<RecordedEvent> MESSAGE_TO_BOTH = named("CommandExecuted")
+            .and(e -> e.getString("command").equals("MessageCommand"))
+            .and(e -> "java".equals(e.getString("channel")))
+            .and(e -> e.getInt("sender") == 1)
+            .and(e -> e.getInt("fanout") == 2);
+
+    @Test
+    public void testFlightEvents() throws Exception {
+        flightEvents(
+                "nio", "shards=2",
+                MESSAGE_TO_BOTH,
+                named("DispatchBatch").and(e -> e.getInt("lines") >= 2)
+                        .and(e -> e.getInt("connections") == 2),
+                named("QueueBacklog").and(e -> e.getInt("shard") == 1)
+        );
+    }
+
+    @Test
+    public void testFlightEventsInline() throws Exception {
+        flightEvents("blocking", "execution=inline", MESSAGE_TO_BOTH);
+    }
+
+    /** Reads every line the client receives into a list, until it is closed. */
+    private static void collect(Client client, List<String> lines) {
+        Thread reader = new Thread(() -> {
+            try {
+                String line;
+                while ((line = client.receive()) != null) {
+                    lines.add(line);
+                }
+            } catch (IOException iox) {
+                // closed by the test
+            }
+        });
+        reader.start();
+    }
+
+    private static void awaitLine(List<String> lines, String line) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!lines.contains(line)) {
+            assertTrue(System.currentTimeMillis() < deadline, "received " + line);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testFairTaskQueue() throws Exception {
+        // The model thread waits for a member of the heavy channel that never
+        // reads, until a backlog of the heavy client's messages has built up
+        int port = start("blocking", "taskQueue=fair", "overflow=block");
+        try (Client heavy = new Client(port); Client light = new Client(port);
+             Client observer = new Client(port); Client mallory = new Client(port, 4096)) {
+            List<String> heavyLines = new CopyOnWriteArrayList<>();
+            List<String> observed = new CopyOnWriteArrayList<>();
+            collect(heavy, heavyLines);
+            collect(observer, observed);
+            assertEquals(":User1 CONNECT", light.receive());
+            heavy.send("CREATE heavy 0");
+            awaitLine(heavyLines, ":User0 CREATE heavy 0");
+            light.send("CREATE light 0");
+            assertEquals(":User1 CREATE light 0", light.receive());
+            observer.send("JOIN heavy");
+            observer.send("JOIN light");
+            awaitLine(observed, ":User2 NAMES light :@User1 User2");
+            mallory.send("JOIN heavy");
+            awaitLine(observed, ":User3 JOIN heavy");
+            assertEquals(":User2 JOIN light", light.receive());
+
+            Metrics metrics = backend.getMetrics();
+            String depth = "task_queue_depth{shard=\"0\"}";
+            long deadline = System.currentTimeMillis() + 20000;
+            int sent = 0;
+            while (metrics.snapshot().get(depth) < 500) {
+                assertTrue(System.currentTimeMillis() < deadline, "backlog built up");
+                List<String> burst = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    burst.add("MESG heavy :" + sent++ + " " + "x".repeat(100));
+                }
+                heavy.send(burst);
+                Thread.sleep(10);
+            }
+            long received = metrics.snapshot().get("lines_received_total");
+            light.send("MESG light :hi");
+            while (metrics.snapshot().get("lines_received_total") <= received) {
+                assertTrue(System.currentTimeMillis() < deadline, "light message read");
+                Thread.sleep(10);
+            }
+            Thread.sleep(100); // from read to queued
+            long backlog = metrics.snapshot().get(depth);
+            mallory.disconnect();
+
+            assertEquals(":User1 MESG light :hi", light.receive(), "served");
+            awaitLine(observed, ":User0 MESG heavy :" + (sent - 1) + " " + "x".repeat(100));
+            int at = observed.indexOf(":User1 MESG light :hi");
+            long after = observed.subList(at, observed.size()).stream()
+                    .filter(line -> line.startsWith(":User0 MESG heavy")).count();
+            assertTrue(after >= backlog / 2,
+                    "light client served before most of the backlog: " + after + " of " + backlog);
+        }
+    }
+
+    @Test
+    public void testFairTaskQueueWithShards() throws Exception {
+        assertNickBarriers("nio", "taskQueue=fair", "fairQuantum=4", "shards=3");
+    }
+
+    /*
+     * Several clients of one channel send bursts of messages at once, each
+     * run on its own reader. Holding the channel's lock until the responses
+     * are queued means everyone sees the same interleaving.
+     */
+    private void assertInlineConcurrency(String transport, String... options) throws Exception {
+        String[] all = Arrays.copyOf(options, options.length + 1);
+        all[options.length] = "execution=inline";
+        int port = start(transport, all);
+        int senders = 4;
+        int perSender = 100;
+        List<Client> clients = new ArrayList<>();
+        try {
+            for (int c = 0; c < senders; c++) {
+                Client client = new Client(port);
+                clients.add(client);
+                assertEquals(":User" + c + " CONNECT", client.receive());
+                client.send(c == 0 ? "CREATE java 0" : "JOIN java");
+                // Everyone already in the channel sees the join
+                for (int seen = 0; seen <= c; seen++) {
+                    String line = clients.get(seen).receive();
+                    assertTrue(line.startsWith(":User" + c + " "), line);
+                }
+                if (c > 0) {
+                    assertTrue(client.receive().startsWith(":User" + c + " NAMES java"));
+                }
+            }
+            for (int c = 0; c < senders; c++) {
+                List<String> burst = new ArrayList<>();
+                for (int i = 0; i < perSender; i++) {
+                    burst.add("MESG java :" + i);
+                }
+                clients.get(c).send(burst);
+            }
+            List<String> first = null;
+            for (Client client : clients) {
+                List<String> received = new ArrayList<>();
+                int[] next = new int[senders];
+                for (int i = 0; i < senders * perSender; i++) {
+                    String line = client.receive();
+                    received.add(line);
+                    int sender = line.charAt(5) - '0';
+                    assertEquals(":User" + sender + " MESG java :" + next[sender]++, line);
+                }
+                if (first == null) {
+                    first = received;
+                } else {
+                    assertEquals(first, received, "same order for every member");
+                }
+            }
+        } finally {
+            for (Client client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testInlineExecution() throws Exception {
+        assertInlineConcurrency("blocking");
+    }
+
+    @Test
+    public void testInlineExecutionOnNio() throws Exception {
+        assertInlineConcurrency("nio", "eventLoops=2", "lockStripes=4");
+    }
+
+    @Test
+    public void testInlineBlockedOverflow() throws Exception {
+        // The reader runs the commands and waits for its own writer
+        assertBlockedOverflowDrains("blocking", "execution=inline");
+    }
+
+    @Test
+    public void testInlineRejectedWithNioAndBlockedOverflow() {
+        // Every command would run on an event loop, which may never wait
+        assertThrows(IllegalArgumentException.class, () -> ServerConfig.fromArgs(new String[] {
+            "transport=nio", "execution=inline", "overflow=block"
+        }));
+    }
+
+    @Test
+    public void testShardsKeepEachChannelInOrder() throws Exception {
+        int port = start("blocking", "shards=4");
+        int channels = 8;
+        int perChannel = 50;
+        try (Client alice = new Client(port); Client bob = new Client(port)) {
+            assertEquals(":User0 CONNECT", alice.receive());
+            assertEquals(":User1 CONNECT", bob.receive());
+            for (int c = 0; c < channels; c++) {
+                alice.send("CREATE c" + c + " 0");
+                assertEquals(":User0 CREATE c" + c + " 0", alice.receive());
+                bob.send("JOIN c" + c);
+                assertEquals(":User1 JOIN c" + c, bob.receive());
+                assertEquals(":User1 NAMES c" + c + " :@User0 User1", bob.receive());
+                assertEquals(":User1 JOIN c" + c, alice.receive());
+            }
+
+            // A NICK is seen once, after everything sent before it
+            alice.send("NICK alice");
+            assertEquals(":User0 NICK alice", bob.receive(), "nick broadcast");
+            assertEquals(":User0 NICK alice", alice.receive(), "nick echo");
+
+            for (int i = 0; i < perChannel; i++) {
+                for (int c = 0; c < channels; c++) {
+                    alice.send("MESG c" + c + " :" + i);
+                }
+            }
+            int[] next = new int[channels];
+            for (int i = 0; i < channels * perChannel; i++) {
+                String line = bob.receive();
+                assertTrue(line.startsWith(":alice MESG c"), line);
+                int space = line.indexOf(' ', 13);
+                int channel = Integer.parseInt(line.substring(13, space));
+                int seq = Integer.parseInt(line.substring(space + 2));
+                assertEquals(next[channel]++, seq, "order in c" + channel);
+            }
+        }
+    }
+
+    @Test
+    public void testBadInputIsHandledBeforeTheModel() throws Exception {
+        int port = start("nio");
+        try (Client alice = new Client(port)) {
+            assertEquals(":User0 CONNECT", alice.receive());
+            alice.send("NICK b@d");
+            assertEquals(":$server ERROR 401", alice.receive(), "invalid nickname");
+            alice.send("CREATE b@d 0");
+            assertEquals(":$server ERROR 401", alice.receive(), "invalid channel name");
+            alice.send("FROB java");
+            assertEquals(":$server ERROR 400", alice.receive(), "unknown command");
+            alice.send("CREATE java 7");
+            assertEquals(":$server ERROR 400", alice.receive(), "bad flag");
+            alice.send("MESG java");
+            assertEquals(":$server ERROR 400", alice.receive(), "missing payload");
+            alice.send("NICK alice");
+            assertEquals(":User0 NICK alice", alice.receive(), "still connected");
+        }
+    }
+
+    private void assertCoalesced(String transport) throws Exception {
+        converse(transport, "writeLingerMicros=2000");
+        // 5 lines to the first client and 4 to the second
+        OutboundQueue.Stats stats = backend.getOutboundStats();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stats.getWrittenLines() < 9) {
+            assertTrue(System.currentTimeMillis() < deadline, "lines were not written");
+            Thread.sleep(10);
+        }
+        assertEquals(9, stats.getWrittenLines());
+        assertTrue(stats.getWrites() < 9, "JOIN and NAMES share a write");
+    }
+
+    @Test
+    public void testBlockingTransportCoalescesWrites() throws Exception {
+        assertCoalesced("blocking");
+    }
+
+    @Test
+    public void testNioTransportCoalescesWrites() throws Exception {
+        assertCoalesced("nio");
+    }
+
+    /*
+     * Sends one client more lines in one batch than its outbound queue
+     * holds, so the model thread must wait for the writer halfway through.
+     */
+    private void assertBlockedOverflowDrains(String transport, String... options)
+            throws Exception {
+        String[] all = Arrays.copyOf(options, options.length + 2);
+        all[options.length] = "overflow=block";
+        all[options.length + 1] = "outboundCapacity=4";
+        int port = start(transport, all);
+        try (Client alice = new Client(port)) {
+            assertEquals(":User0 CONNECT", alice.receive());
+            alice.send("CREATE java 0");
+            assertEquals(":User0 CREATE java 0", alice.receive());
+            List<String> burst = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                burst.add("MESG java :" + i);
+            }
+            alice.send(burst);
+            for (int i = 0; i < 200; i++) {
+                assertEquals(":User0 MESG java :" + i, alice.receive(), "echo " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testBlockingTransportBlockedOverflow() throws Exception {
+        assertBlockedOverflowDrains("blocking");
+    }
+
+    @Test
+    public void testNioTransportBlockedOverflow() throws Exception {
+        assertBlockedOverflowDrains("nio");
+    }
+
+    /*
+     * With one event loop and room for one line, the lines owed for a burst
+     * of commands read at once overflow the queue before the loop can write
+     * them. Only the slow client is in its channel.
+     */
+    private void assertSlowConsumerDisconnected(String... options) throws Exception {
+        String[] all = Arrays.copyOf(options, options.length + 3);
+        all[options.length] = "eventLoops=1";
+        all[options.length + 1] = "outboundCapacity=1";
+        all[options.length + 2] = "overflow=disconnect";
+        int port = start("nio", all);
+        try (Client alice = new Client(port); Client bob = new Client(port)) {
+            assertEquals(":User0 CONNECT", alice.receive());
+            assertEquals(":User1 CONNECT", bob.receive());
+            List<String> burst = new ArrayList<>(List.of("CREATE bobs 0"));
+            for (int i = 0; i < 50; i++) {
+                burst.add("MESG bobs :" + i);
+            }
+            bob.send(burst);
+            assertNull(bob.receive(), "disconnected");
+            Metrics metrics = backend.getMetrics();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (metrics.snapshot().get("model_users") != 1) {
+                assertTrue(System.currentTimeMillis() < deadline, "disconnection reported");
+                Thread.sleep(10);
+            }
+            alice.send("CREATE java 0");
+            assertEquals(":User0 CREATE java 0", alice.receive(), "model still runs");
+        }
+        assertEquals(1, backend.getOutboundStats().getSlowConsumerDisconnects());
+    }
+
+    @Test
+    public void testSlowConsumerWithFullRing() throws Exception {
+        // The event loop waits for room in the ring while the model thread
+        // overflows the slow client's queue
+        assertSlowConsumerDisconnected("taskQueue=ring", "taskQueueCapacity=4");
+    }
+
+    @Test
+    public void testSlowConsumerInline() throws Exception {
+        assertSlowConsumerDisconnected("execution=inline");
+    }
+
+    /*
+     * A client that sends malformed lines and never reads its errors fills
+     * its outbound queue from the thread that reads its requests, which must
+     * not wait for the writer. With one event loop, everyone else would wait
+     * with it.
+     */
+    private void assertUnreadErrorsDisconnect(String transport) {
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            int port = start(transport, "overflow=block", "outboundCapacity=4", "eventLoops=1");
+            try (Client alice = new Client(port); Client mallory = new Client(port, 4096)) {
+                assertEquals(":User0 CONNECT", alice.receive());
+                List<String> junk = new ArrayList<>();
+                for (int i = 0; i < 1000; i++) {
+                    junk.add("FROB " + i);
+                }
+                OutboundQueue.Stats stats = backend.getOutboundStats();
+                while (stats.getSlowConsumerDisconnects() == 0) {
+                    mallory.send(junk);
+                }
+                alice.send("CREATE java 0");
+                assertEquals(":User0 CREATE java 0", alice.receive(), "others still served");
+            }
+            assertEquals(1, backend.getOutboundStats().getSlowConsumerDisconnects());
+        });
+    }
+
+    @Test
+    public void testBlockingTransportUnreadErrors() {
+        assertUnreadErrorsDisconnect("blocking");
+    }
+
+    @Test
+    public void testNioTransportUnreadErrors() {
+        assertUnreadErrorsDisconnect("nio");
+    }
+
+    @Test
+    public void testVirtualTransport() throws Exception {
+        if (Runtime.version().feature() >= 21) {
+            converse("virtual");
+        } else {
+            // Without virtual threads the server refuses to start
+            Thread acceptor = launch("virtual");
+            acceptor.join(5000);
+            assertFalse(acceptor.isAlive(), "server gave up");
+            assertFalse(backend.isRunning(), "server is not running");
+        }
+    }
+}
@@ -4,7 +4,10 @@ import org.junit.jupiter.api.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 public class ServerModelTest {
@@ -1005,5 +1008,260 @@ public class ServerModelTest {
 
     }
 
+    @Test
+    public void lookupsFollowNicknameChanges() {
+        model.registerUser(0);
+        model.registerUser(1);
+        CreateCommand create = new CreateCommand(0, "java", false);
+        create.updateServerModel(model);
+
+        NicknameCommand nick = new NicknameCommand(0, "duke");
+        nick.updateServerModel(model);
+
+        //both directions of the user index see the new name
+        assertEquals(0, model.getUserId("duke"));
+        assertEquals("duke", model.getNickname(0));
+        assertTrue(model.existingNickname("duke"));
+        assertFalse(model.existingNickname("User0"));
+        assertThrows(IllegalArgumentException.class, () -> model.getUserId("User0"));
+
+        //the channel index sees the new owner name
+        assertEquals("duke", model.getOwner("java"));
+
+        //the freed default name can be taken by someone else
+        NicknameCommand takeOld = new NicknameCommand(1, "User0");
+        ResponseSet expected = ResponseSet.singleMessage(Response.okay(1, "User1", takeOld));
+        assertEquals(expected, takeOld.updateServerModel(model));
+        assertEquals(1, model.getUserId("User0"));
+    }
+
+    @Test
+    public void channelIndexAfterDeleteAndRecreate() {
+        model.registerUser(0);
+        model.registerUser(1);
+        new CreateCommand(0, "java", false).updateServerModel(model);
+        new LeaveCommand(0, "java").updateServerModel(model);
+
+        //the channel is gone from every lookup
+        assertFalse(model.getChannels().contains("java"));
+        assertThrows(IllegalArgumentException.class, () -> model.getOwner("java"));
+        assertThrows(IllegalArgumentException.class, () -> model.getUserIdsInChannel("java"));
+
+        //a new channel with the same name starts from scratch
+        CreateCommand recreate = new CreateCommand(1, "java", false);
+        ResponseSet expected = ResponseSet.singleMessage(Response.okay(1, "User1", recreate));
+        assertEquals(expected, recreate.updateServerModel(model));
+        assertEquals("User1", model.getOwner("java"));
+        assertEquals(Set.of(1), Set.copyOf(model.getUserIdsInChannel("java")));
+    }
+
+    @Test
+    public void scriptedSessionResponses() {
+        //replays a whole session and checks every ResponseSet, so any change
+        //to how the model stores its state must produce the same output
+        assertEquals(ResponseSet.singleMessage(Response.connected(0, "User0")),
+                model.registerUser(0));
+        assertEquals(ResponseSet.singleMessage(Response.connected(1, "User1")),
+                model.registerUser(1));
+        assertEquals(ResponseSet.singleMessage(Response.connected(2, "User2")),
+                model.registerUser(2));
+
+        Command create = new CreateCommand(1, "java", false);
+        assertEquals(ResponseSet.singleMessage(Response.okay(1, "User1", create)),
+                create.updateServerModel(model));
+
+        Command join0 = new JoinCommand(0, "java");
+        ResponseSet expected = new ResponseSet();
+        expected.addMessage(Response.okay(0, "User0", join0));
+        expected.addMessage(Response.okay(1, "User0", join0));
+        expected.addMessage(Response.names(0, "User0", "java", "User0 @User1"));
+        assertEquals(expected, join0.updateServerModel(model));
+
+        Command join2 = new JoinCommand(2, "java");
+        expected = new ResponseSet();
+        expected.addMessage(Response.okay(0, "User2", join2));
+        expected.addMessage(Response.okay(1, "User2", join2));
+        expected.addMessage(Response.okay(2, "User2", join2));
+        expected.addMessage(Response.names(2, "User2", "java", "User0 @User1 User2"));
+        assertEquals(expected, join2.updateServerModel(model));
+
+        Command nick = new NicknameCommand(1, "duke");
+        expected = new ResponseSet();
+        expected.addMessage(Response.okay(0, "User1", nick));
+        expected.addMessage(Response.okay(1, "User1", nick));
+        expected.addMessage(Response.okay(2, "User1", nick));
+        assertEquals(expected, nick.updateServerModel(model));
+
+        Command mesg = new MessageCommand(2, "java", "hi duke");
+        expected = new ResponseSet();
+        expected.addMessage(Response.okay(0, "User2", mesg));
+        expected.addMessage(Response.okay(1, "User2", mesg));
+        expected.addMessage(Response.okay(2, "User2", mesg));
+        assertEquals(expected, mesg.updateServerModel(model));
+
+        Command leave = new LeaveCommand(0, "java");
+        expected = new ResponseSet();
+        expected.addMessage(Response.okay(0, "User0", leave));
+        expected.addMessage(Response.okay(1, "User0", leave));
+        expected.addMessage(Response.okay(2, "User0", leave));
+        assertEquals(expected, leave.updateServerModel(model));
+
+        Command badMesg = new MessageCommand(0, "java", "still here?");
+        assertEquals(ResponseSet.singleMessage(
+                Response.error(badMesg, ErrorCode.USER_NOT_IN_CHANNEL)),
+                badMesg.updateServerModel(model));
+
+        assertEquals(ResponseSet.singleMessage(Response.disconnected(2, "duke")),
+                model.deregisterUser(1));
+        assertTrue(model.getChannels().isEmpty(), "owner's channel removed");
+        assertEquals(ResponseSet.empty(), model.deregisterUser(2));
+    }
+
+    @Test
+    public void nicknameChangeAfterOwnerDisconnects() {
+        model.registerUser(0);
+        model.registerUser(1);
+        model.registerUser(2);
+        new CreateCommand(0, "java", false).updateServerModel(model);
+        new JoinCommand(1, "java").updateServerModel(model);
+        new JoinCommand(2, "java").updateServerModel(model);
+
+        //the owner leaving the server deletes the channel for everyone
+        model.deregisterUser(0);
+
+        //so a rename is only reported back to the user themselves
+        NicknameCommand nick = new NicknameCommand(1, "duke");
+        ResponseSet expected = ResponseSet.singleMessage(Response.okay(1, "User1", nick));
+        assertEquals(expected, nick.updateServerModel(model));
+
+        //and a disconnect is not reported to anyone
+        assertEquals(ResponseSet.empty(), model.deregisterUser(2));
+    }
+
+    @Test
+    public void nicknameChangeAfterLeavingChannel() {
+        model.registerUser(0);
+        model.registerUser(1);
+        new CreateCommand(0, "java", false).updateServerModel(model);
+        new CreateCommand(0, "ocaml", false).updateServerModel(model);
+        new JoinCommand(1, "java").updateServerModel(model);
+        new JoinCommand(1, "ocaml").updateServerModel(model);
+        new LeaveCommand(1, "java").updateServerModel(model);
+
+        //user 0 still shares ocaml with user 1
+        NicknameCommand nick = new NicknameCommand(1, "duke");
+        ResponseSet expected = new ResponseSet();
+        expected.addMessage(Response.okay(0, "User1", nick));
+        expected.addMessage(Response.okay(1, "User1", nick));
+        assertEquals(expected, nick.updateServerModel(model));
+        assertTrue(model.getUserNicknamesInChannel("ocaml").contains("duke"));
+        assertFalse(model.getUserNicknamesInChannel("java").contains("duke"));
+
+        //once the owner leaves ocaml, the channel is gone for user 1 too
+        new LeaveCommand(0, "ocaml").updateServerModel(model);
+        NicknameCommand nick2 = new NicknameCommand(1, "duchess");
+        expected = ResponseSet.singleMessage(Response.okay(1, "duke", nick2));
+        assertEquals(expected, nick2.updateServerModel(model));
+        assertEquals(ResponseSet.empty(), model.deregisterUser(1));
+    }
+
+    @Test
+    public void channelsWithSameCharacterSumAreDistinct() {
+        //"ab" and "ba" (and "Ab"/"bA") have the same sum of character codes,
+        //which used to make them compare as the same channel
+        model.registerUser(0);
+        model.registerUser(1);
+        CreateCommand createAb = new CreateCommand(0, "ab", false);
+        CreateCommand createBa = new CreateCommand(1, "ba", false);
+        assertEquals(ResponseSet.singleMessage(Response.okay(0, "User0", createAb)),
+                createAb.updateServerModel(model));
+        assertEquals(ResponseSet.singleMessage(Response.okay(1, "User1", createBa)),
+                createBa.updateServerModel(model));
+
+        assertEquals(Set.of("ab", "ba"), Set.copyOf(model.getChannels()));
+        assertEquals(2, model.getRegisteredChannels().size(), "no channel lost");
+        assertEquals("User0", model.getOwner("ab"));
+        assertEquals("User1", model.getOwner("ba"));
+
+        //a message to one of them does not reach the other
+        MessageCommand mesg = new MessageCommand(0, "ab", "hi");
+        assertEquals(ResponseSet.singleMessage(Response.okay(0, "User0", mesg)),
+                mesg.updateServerModel(model));
+    }
+
+    @Test
+    public void channelInfoOrderingAgreesWithEquals() {
+        ChannelInfo ab = new ChannelInfo(0, "User0", "ab", new TreeMap<>());
+        ChannelInfo ba = new ChannelInfo(1, "User1", "ba", new TreeMap<>());
+        ChannelInfo abAgain = new ChannelInfo(1, "User1", "ab", new TreeMap<>());
+
+        assertNotEquals(0, ab.compareTo(ba), "different names are ordered");
+        assertEquals(-Integer.signum(ab.compareTo(ba)), Integer.signum(ba.compareTo(ab)));
+        assertNotEquals(ab, ba);
+
+        assertEquals(0, ab.compareTo(abAgain), "same name compares equal");
+        assertEquals(ab, abAgain);
+        assertEquals(ab.hashCode(), abAgain.hashCode(), "equal channels hash alike");
+
+        Set<ChannelInfo> hashed = new HashSet<>(List.of(ab, ba, abAgain));
+        assertEquals(2, hashed.size(), "usable in a HashSet");
+    }
+
+    @Test
+    public void registerReusesSmallestFreeDefaultNickname() {
+        model.registerUser(0);
+        model.registerUser(1);
+        model.registerUser(2);
+        model.deregisterUser(1);
+        model.deregisterUser(0);
 
+        //the smallest released name comes back first
+        assertEquals(ResponseSet.singleMessage(Response.connected(3, "User0")),
+                model.registerUser(3));
+        assertEquals(ResponseSet.singleMessage(Response.connected(4, "User1")),
+                model.registerUser(4));
+        assertEquals(ResponseSet.singleMessage(Response.connected(5, "User3")),
+                model.registerUser(5));
+    }
+
+    @Test
+    public void registerSkipsDefaultNicknamesTakenByNick() {
+        model.registerUser(0);
+        //user 0 moves from User0 to User1, freeing User0
+        new NicknameCommand(0, "User1").updateServerModel(model);
+        assertEquals(ResponseSet.singleMessage(Response.connected(1, "User0")),
+                model.registerUser(1));
+        assertEquals(ResponseSet.singleMessage(Response.connected(2, "User2")),
+                model.registerUser(2));
+
+        //names that only look similar do not block anything
+        new NicknameCommand(2, "User03").updateServerModel(model);
+        assertEquals(ResponseSet.singleMessage(Response.connected(3, "User2")),
+                model.registerUser(3));
+        assertEquals(ResponseSet.singleMessage(Response.connected(4, "User3")),
+                model.registerUser(4));
+
+        //a huge suffix picked by hand is fine too
+        new NicknameCommand(4, "User999999999").updateServerModel(model);
+        assertEquals(ResponseSet.singleMessage(Response.connected(5, "User3")),
+                model.registerUser(5));
+    }
+
+    @Test
+    public void findLookupsReturnNullForMisses() {
+        model.registerUser(0);
+        assertEquals("User0", model.findNickname(0));
+        assertEquals(0, model.findUserId("User0"));
+        assertNull(model.findNickname(1));
+        assertNull(model.findUserId("User1"));
+    }
+
+    @Test
+    public void errorForUnparsedRequest() {
+        assertEquals(":$server ERROR 400", Response.error(3, ErrorCode.SYNTAX_ERROR).getText());
+        assertEquals(
+                Response.error(new JoinCommand(3, "java"), ErrorCode.NO_SUCH_CHANNEL),
+                Response.error(3, ErrorCode.NO_SUCH_CHANNEL)
+        );
+    }
 }
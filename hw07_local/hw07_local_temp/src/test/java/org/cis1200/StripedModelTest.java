@@ -0,0 +1,178 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public class StripedModelTest {
+
+    /** One operation as the StripedModel ran it, and what it answered. */
+    private static final class Step {
+        final Function<ServerModel, ResponseSet> operation;
+        final ResponseSet responses;
+
+        Step(Function<ServerModel, ResponseSet> operation, ResponseSet responses) {
+            this.operation = operation;
+            this.responses = responses;
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<>();
+
+    /*
+     * The sink runs with the StripedModel's locks held, so operations that
+     * touch the same channel or user are recorded in the order they ran.
+     */
+    private Consumer<ResponseSet> record(Function<ServerModel, ResponseSet> operation) {
+        return responses -> {
+            synchronized (steps) {
+                steps.add(new Step(operation, responses));
+            }
+        };
+    }
+
+    @Test
+    public void testRoundsStripesUp() {
+        assertEquals(8, new StripedModel(new ServerModel(), 5).stripeCount());
+        assertEquals(1, new StripedModel(new ServerModel(), 1).stripeCount());
+        assertThrows(IllegalArgumentException.class, () -> new StripedModel(new ServerModel(), 0));
+    }
+
+    @Test
+    public void testBehavesLikeTheModel() {
+        ServerModel model = new ServerModel();
+        StripedModel striped = new StripedModel(model, 4);
+        List<ResponseSet> got = new ArrayList<>();
+        striped.register(0, got::add);
+        striped.register(1, got::add);
+        striped.execute(new CreateCommand(0, "java", false), got::add);
+        striped.execute(new JoinCommand(1, "java"), got::add);
+        striped.execute(new NicknameCommand(1, "bob"), got::add);
+        striped.execute(new MessageCommand(1, "java", "hi"), got::add);
+        striped.deregister(0, got::add);
+
+        ServerModel expected = new ServerModel();
+        List<ResponseSet> want = List.of(
+                expected.registerUser(0),
+                expected.registerUser(1),
+                expected.createChannel(new CreateCommand(0, "java", false)),
+                expected.joinChannel(new JoinCommand(1, "java")),
+                expected.changeNickname(new NicknameCommand(1, "bob")),
+                expected.sendMessage(new MessageCommand(1, "java", "hi")),
+                expected.deregisterUser(0)
+        );
+        assertEquals(want, got);
+        assertEquals(expected.getRegisteredUsers(), model.getRegisteredUsers());
+        assertEquals(expected.getChannels(), model.getChannels());
+    }
+
+    @Test
+    public void testIgnoresUnregisteredSenders() {
+        StripedModel striped = new StripedModel(new ServerModel(), 4);
+        List<ResponseSet> got = new ArrayList<>();
+        striped.execute(new CreateCommand(3, "java", false), got::add);
+        striped.execute(new NicknameCommand(3, "bob"), got::add);
+        striped.deregister(3, got::add);
+        assertTrue(got.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentRunMatchesSequentialReplay() throws InterruptedException {
+        ServerModel model = new ServerModel();
+        // Few stripes, channels and names, so that commands collide often
+        StripedModel striped = new StripedModel(model, 4);
+        String[] channels = { "c0", "c1", "c2", "c3", "c4", "c5" };
+        String[] names = { "a", "b", "c", "d", "User0", "User1", "User2" };
+        int threads = 8;
+        int operations = 3000;
+
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers.add(new Thread(() -> {
+                Random random = new Random(1200 + thread);
+                // Each thread owns the users it registers; ids never repeat
+                int nextId = thread * 1_000_000;
+                int[] users = new int[3];
+                for (int u = 0; u < users.length; u++) {
+                    int userId = nextId++;
+                    striped.register(userId, record(m -> m.registerUser(userId)));
+                    users[u] = userId;
+                }
+                try {
+                    for (int i = 0; i < operations; i++) {
+                        int u = random.nextInt(users.length);
+                        int sender = users[u];
+                        String channel = channels[random.nextInt(channels.length)];
+                        String name = names[random.nextInt(names.length)];
+                        Command command;
+                        switch (random.nextInt(9)) {
+                            case 0:
+                                command = new NicknameCommand(sender, name + random.nextInt(3));
+                                break;
+                            case 1:
+                                command = new CreateCommand(sender, channel, random.nextBoolean());
+                                break;
+                            case 2:
+                            case 3:
+                                command = new JoinCommand(sender, channel);
+                                break;
+                            case 4:
+                                command = new LeaveCommand(sender, channel);
+                                break;
+                            case 5:
+                                command = new InviteCommand(sender, channel, name);
+                                break;
+                            case 6:
+                                command = new KickCommand(sender, channel, name);
+                                break;
+                            case 7:
+                                command = new MessageCommand(sender, channel, "m" + i);
+                                break;
+                            default:
+                                // Leave, and come back as a new user
+                                striped.deregister(sender, record(m -> m.deregisterUser(sender)));
+                                int userId = nextId++;
+                                striped.register(userId, record(m -> m.registerUser(userId)));
+                                users[u] = userId;
+                                continue;
+                        }
+                        striped.execute(command, record(command::updateServerModel));
+                    }
+                } catch (Throwable x) {
+                    synchronized (failures) {
+                        failures.add(x);
+                    }
+                }
+            }, "Worker " + t));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join(60_000);
+            assertFalse(worker.isAlive(), "deadlocked");
+        }
+        assertEquals(List.of(), failures);
+
+        // Replaying the recorded order on one thread must give the same answers
+        ServerModel replay = new ServerModel();
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            assertEquals(step.responses, step.operation.apply(replay), "step " + i);
+        }
+        assertEquals(replay.getRegisteredUsers(), model.getRegisteredUsers());
+        assertEquals(replay.getChannels(), model.getChannels());
+        for (String channel : model.getChannels()) {
+            assertEquals(replay.getUserNicknamesInChannel(channel),
+                    model.getUserNicknamesInChannel(channel), channel);
+            assertEquals(replay.getOwner(channel), model.getOwner(channel), channel);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TaskQueueTest {
+
+    private static List<TaskQueue<Integer>> everyQueue(int capacity) {
+        List<TaskQueue<Integer>> queues = new ArrayList<>();
+        queues.add(new LinkedTaskQueue<>());
+        // With a single lane, a fair queue is a plain FIFO
+        queues.add(new FairTaskQueue<>(task -> 0, task -> false, 3));
+        for (TaskQueue.WaitStrategy strategy : TaskQueue.WaitStrategy.values()) {
+            queues.add(new RingTaskQueue<>(capacity, strategy));
+        }
+        return queues;
+    }
+
+    @Test
+    public void testTakesInOrderUpToTheBatchSize() throws InterruptedException {
+        for (TaskQueue<Integer> queue : everyQueue(8)) {
+            for (int i = 0; i < 5; i++) {
+                queue.add(i);
+            }
+            assertEquals(5, queue.size());
+            List<Integer> batch = new ArrayList<>();
+            assertEquals(3, queue.take(batch, 3));
+            assertEquals(2, queue.take(batch, 3));
+            assertEquals(List.of(0, 1, 2, 3, 4), batch);
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void testRingRoundsCapacityUp() {
+        assertEquals(8, new RingTaskQueue<Integer>(5, TaskQueue.WaitStrategy.BLOCK).capacity());
+        assertEquals(1, new RingTaskQueue<Integer>(1, TaskQueue.WaitStrategy.BLOCK).capacity());
+        assertThrows(IllegalArgumentException.class,
+                () -> new RingTaskQueue<Integer>(0, TaskQueue.WaitStrategy.BLOCK));
+    }
+
+    @Test
+    public void testManyProducersKeepTheirOwnOrder() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 20_000;
+        // A small ring, so that producers also have to wait for room
+        for (TaskQueue<Integer> queue : everyQueue(64)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.add(producer * perProducer + i);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+
+            int[] next = new int[producers];
+            List<Integer> batch = new ArrayList<>();
+            int received = 0;
+            while (received < producers * perProducer) {
+                received += queue.take(batch, 100);
+                for (int task : batch) {
+                    int producer = task / perProducer;
+                    assertEquals(next[producer]++, task % perProducer, "order of " + producer);
+                }
+                batch.clear();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(queue.isEmpty(), queue.getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    public void testWaitingConsumerIsWokenAndCanBeInterrupted() throws InterruptedException {
+        for (TaskQueue<Integer> queue : everyQueue(8)) {
+            List<Integer> batch = new ArrayList<>();
+            Thread consumer = new Thread(() -> {
+                try {
+                    queue.take(batch, 10);
+                } catch (InterruptedException ix) {
+                    fail("not interrupted yet");
+                }
+            });
+            consumer.start();
+            Thread.sleep(20);
+            queue.add(42);
+            consumer.join(5000);
+            assertFalse(consumer.isAlive(), "consumer woke up");
+            assertEquals(List.of(42), batch);
+
+            AtomicReference<Throwable> thrown = new AtomicReference<>();
+            Thread idle = new Thread(() -> {
+                try {
+                    queue.take(batch, 10);
+                } catch (InterruptedException ix) {
+                    thrown.set(ix);
+                }
+            });
+            idle.start();
+            Thread.sleep(20);
+            idle.interrupt();
+            idle.join(5000);
+            assertFalse(idle.isAlive(), "interrupt ends the wait");
+            assertTrue(thrown.get() instanceof InterruptedException);
+        }
+    }
+}
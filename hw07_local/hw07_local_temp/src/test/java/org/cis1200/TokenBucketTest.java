@@ -0,0 +1,50 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void testBurstThenSteadyRate() {
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0), "burst used up");
+        assertFalse(bucket.tryAcquire(SECOND / 2 - 1), "not refilled yet");
+        assertTrue(bucket.tryAcquire(SECOND / 2), "one token per half second");
+        assertFalse(bucket.tryAcquire(SECOND / 2));
+    }
+
+    @Test
+    public void testRefillsNoFurtherThanTheBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        assertTrue(bucket.isFull(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.isFull(0));
+        long later = 100 * SECOND;
+        assertTrue(bucket.isFull(later));
+        assertTrue(bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later));
+        assertFalse(bucket.tryAcquire(later));
+    }
+
+    @Test
+    public void testReserveQueuesUpToTheMaximumDelay() {
+        TokenBucket bucket = new TokenBucket(10, 1, 0);
+        long tenth = SECOND / 10;
+        assertEquals(0, bucket.reserve(0, tenth));
+        assertEquals(tenth, bucket.reserve(0, tenth));
+        assertEquals(-1, bucket.reserve(0, tenth), "would wait two tenths");
+        // A refused reservation takes nothing
+        assertEquals(tenth, bucket.reserve(tenth, tenth));
+    }
+
+    @Test
+    public void testRejectsBadSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1, 0, 0));
+    }
+}
@@ -0,0 +1,54 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+public class TraceConverterTest {
+
+    @Test
+    public void testStagesNestInOneRow() {
+        String json = TraceConverter.convert(List.of(
+                "7 1000 3 MessageCommand java q=1500 d=2000 m=2250 s=3000 w=3@4000,4@9000"
+        ));
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ns\",\"traceEvents\":["), json);
+        assertTrue(json.contains(
+                "{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":7,"
+                        + "\"args\":{\"name\":\"#7 MessageCommand from user 3 in java\"}}"), json);
+        assertTrue(json.contains("\"name\":\"MessageCommand\",\"pid\":1,\"tid\":7,"
+                + "\"ts\":1000.000,\"dur\":9.000,"
+                + "\"args\":{\"user\":3,\"channel\":\"java\",\"incomplete\":false}"), json);
+        assertTrue(json.contains("\"name\":\"parse\",\"pid\":1,\"tid\":7,\"ts\":1000.000,\"dur\":1.500"));
+        assertTrue(json.contains("\"name\":\"queued\",\"pid\":1,\"tid\":7,\"ts\":1001.500,\"dur\":0.500"));
+        assertTrue(json.contains("\"name\":\"model\",\"pid\":1,\"tid\":7,\"ts\":1002.000,\"dur\":0.250"));
+        assertTrue(json.contains("\"name\":\"dispatch\",\"pid\":1,\"tid\":7,\"ts\":1002.250,\"dur\":0.750"));
+
+        // Spans starting together are listed longest first, so they nest
+        int user4 = json.indexOf("write to user 4");
+        int user3 = json.indexOf("write to user 3");
+        int dispatch = json.indexOf("\"dispatch\"");
+        assertTrue(user4 > 0 && user4 < user3 && user3 < dispatch, json);
+    }
+
+    @Test
+    public void testSkipsOtherLinesAndMissingStages() {
+        String json = TraceConverter.convert(List.of(
+                "Log buffer full: 3 lines dropped",
+                "8 1000 0 NicknameCommand - q=-1 d=-1 m=-1 s=20 w= incomplete"
+        ));
+        assertFalse(json.contains("dropped"));
+        assertTrue(json.contains("\"#8 NicknameCommand from user 0\""), json);
+        assertTrue(json.contains("\"incomplete\":true"), json);
+        assertFalse(json.contains("\"parse\""), "never queued");
+        assertFalse(json.contains("\"dispatch\""), "model never finished");
+    }
+
+    @Test
+    public void testEscapesChannelNames() {
+        String json = TraceConverter.convert(List.of(
+                "9 1000 0 JoinCommand a\"b q=1 d=2 m=3 s=4 w=0@5"
+        ));
+        assertTrue(json.contains("\"channel\":\"a\\\"b\""), json);
+    }
+}
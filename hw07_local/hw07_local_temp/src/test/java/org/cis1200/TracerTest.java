@@ -0,0 +1,88 @@
+package org.cis1200;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+public class TracerTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final Tracer tracer = new Tracer(1, "unused.log");
+
+    @BeforeEach
+    public void setUp() {
+        tracer.start(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+    }
+
+    private String[] written() {
+        tracer.close();
+        return bytes.toString(StandardCharsets.UTF_8).split("\n");
+    }
+
+    private static Command command(int userId, String line) {
+        return CommandParser.tryParse(userId, line).getCommand();
+    }
+
+    @Test
+    public void testNotSampledUntilStarted() {
+        assertNull(new Tracer(1, "unused.log").sample(0, 0));
+    }
+
+    @Test
+    public void testEveryStageIsWritten() {
+        Tracer.Trace trace = tracer.sample(3, 1000);
+        trace.parsed(command(3, "MESG java :hi"));
+        trace.queued(1100);
+        trace.dequeued(1500);
+        trace.modelDone(2000);
+        byte[] line = ClientConnection.encodeLine(":User3 MESG java :hi");
+        trace.sending(line, 2);
+        trace.dispatched(2500);
+        assertTrue(tracer.isWatching());
+
+        tracer.written(line, 3, 3000);
+        assertEquals(0, tracer.getFinished(), "still waiting for user 4");
+        tracer.written(line, 4, 4000);
+        assertEquals(1, tracer.getFinished());
+        assertFalse(tracer.isWatching());
+
+        String[] lines = written();
+        assertEquals(1, lines.length);
+        String[] fields = lines[0].split(" ", 3);
+        assertEquals("1", fields[0]);
+        assertTrue(Long.parseLong(fields[1]) > 0, "wall-clock start");
+        assertEquals("3 MessageCommand java q=100 d=500 m=1000 s=1500 w=3@2000,4@3000", fields[2]);
+    }
+
+    @Test
+    public void testWritesBeforeDispatchEnds() {
+        Tracer.Trace trace = tracer.sample(0, 0);
+        trace.parsed(command(0, "NICK bob"));
+        byte[] line = ClientConnection.encodeLine(":User0 NICK bob");
+        trace.sending(line, 1);
+        tracer.written(line, 0, 10);
+        assertEquals(0, tracer.getFinished(), "dispatch is not over");
+        trace.dispatched(20);
+        assertEquals(1, tracer.getFinished());
+        assertTrue(written()[0].endsWith(" 0 NicknameCommand - q=-1 d=-1 m=-1 s=20 w=0@10"));
+    }
+
+    @Test
+    public void testRecipientGoneBeforeSending() {
+        Tracer.Trace trace = tracer.sample(0, 0);
+        byte[] line = ClientConnection.encodeLine(":User0 MESG java :hi");
+        trace.sending(line, 2);
+        trace.notSent();
+        trace.dispatched(5);
+        tracer.written(line, 0, 7);
+        assertEquals(1, tracer.getFinished());
+    }
+
+    @Test
+    public void testOtherLinesAreIgnored() {
+        tracer.written(new byte[] { 'x', '\n' }, 0, 0);
+        assertEquals(0, tracer.getFinished());
+    }
+}